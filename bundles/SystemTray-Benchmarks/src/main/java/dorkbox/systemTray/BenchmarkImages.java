@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Makes images for the benchmarks. Every image (by index) has different contents.
+ */
+public
+class BenchmarkImages {
+    private
+    BenchmarkImages() {
+    }
+
+    public static
+    byte[] makePng(final int index, final int size) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+        ImageIO.write(makeImage(index, size), "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    public static
+    File makePngFile(final int index, final int size) throws IOException {
+        final File file = File.createTempFile("SystemTrayBenchmark", ".png");
+        file.deleteOnExit();
+        ImageIO.write(makeImage(index, size), "png", file);
+        return file;
+    }
+
+    private static
+    BufferedImage makeImage(final int index, final int size) {
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(0xFF000000 | (index * 0x9E3779B1), true));
+        graphics.fillOval(0, 0, size, size);
+        graphics.dispose();
+
+        // make sure every image is different, even if the colors are the same
+        image.setRGB(0, 0, index);
+        return image;
+    }
+}
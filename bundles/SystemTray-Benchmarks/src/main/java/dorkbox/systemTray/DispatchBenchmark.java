@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dorkbox.systemTray.headless.HeadlessSystemTray;
+
+/**
+ * A menu update from the calling thread, onto the dispatch thread, and back again. This uses the headless system tray, where the
+ * dispatch thread is a plain java thread that stands in for the GTK/Swing event thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class DispatchBenchmark {
+    private static final String TEXT = "Entry";
+
+    private HeadlessSystemTray systemTray;
+
+    @Setup
+    public
+    void setup() {
+        systemTray = new HeadlessSystemTray();
+        systemTray.addMenuEntry(TEXT, null);
+    }
+
+    @TearDown
+    public
+    void tearDown() {
+        systemTray.shutdown();
+    }
+
+    @Benchmark
+    public
+    void roundTrip() {
+        systemTray.updateMenuEntry_Callback(TEXT, null);
+    }
+
+    @Benchmark
+    public
+    Boolean roundTripAsync() {
+        return systemTray.updateMenuEntry_TextAsync(TEXT, TEXT).join();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up icons with {@link ImageUtil#iconPath}, when the icon is already in the cache (hit), and when it is not (miss).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class ImageUtilBenchmark {
+    private String hitPath;
+
+    private String[] missNames;
+    private byte[][] missImages;
+    private int next = 0;
+
+    @Setup
+    public
+    void setup() throws Exception {
+        ImageUtil.init();
+
+        hitPath = BenchmarkImages.makePngFile(0, 24).getAbsolutePath();
+        ImageUtil.iconPath(hitPath);
+
+        // more icons than the cache can hold, so looking them up in order always misses (the oldest icon is always evicted)
+        final int count = ImageUtil.CACHE_MAX_ICONS * 2;
+        missNames = new String[count];
+        missImages = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            missNames[i] = "miss" + i;
+            missImages[i] = BenchmarkImages.makePng(i + 1, 24);
+        }
+    }
+
+    @Benchmark
+    public
+    String hit() {
+        return ImageUtil.iconPath(hitPath);
+    }
+
+    @Benchmark
+    public
+    String miss() {
+        final int index = next;
+        next = (index + 1) % missNames.length;
+
+        return ImageUtil.iconPath(missNames[index], new ByteArrayInputStream(missImages[index]));
+    }
+}
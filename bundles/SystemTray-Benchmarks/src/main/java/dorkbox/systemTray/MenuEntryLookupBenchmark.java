@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dorkbox.systemTray.headless.HeadlessSystemTray;
+
+/**
+ * Looking up a menu entry (by text and by id) with {@link SystemTray#getMenuEntry}, with different numbers of menu entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class MenuEntryLookupBenchmark {
+    @Param({"10", "100", "1000"})
+    public int entries;
+
+    private HeadlessSystemTray systemTray;
+    private String lastText;
+    private int lastId;
+
+    @Setup
+    public
+    void setup() {
+        systemTray = new HeadlessSystemTray();
+        for (int i = 0; i < entries; i++) {
+            systemTray.addMenuEntry("Entry " + i, null);
+        }
+
+        // the last entry is the worst case when searching the list
+        lastText = "Entry " + (entries - 1);
+
+        // menu entries are added on the dispatch thread. This waits until they have been.
+        systemTray.updateMenuEntry_Callback(lastText, null);
+        synchronized (systemTray.menuEntries) {
+            lastId = systemTray.getMenuEntry(lastText).getId();
+        }
+    }
+
+    @TearDown
+    public
+    void tearDown() {
+        systemTray.shutdown();
+    }
+
+    @Benchmark
+    public
+    MenuEntry byText() {
+        synchronized (systemTray.menuEntries) {
+            return systemTray.getMenuEntry(lastText);
+        }
+    }
+
+    @Benchmark
+    public
+    MenuEntry byId() {
+        synchronized (systemTray.menuEntries) {
+            return systemTray.getMenuEntry(lastId);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.swing;
+
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.ImageIcon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dorkbox.systemTray.BenchmarkImages;
+
+/**
+ * Loading (and scaling) a menu entry icon the same way as the swing tray and menu entries do, compared with Image.SCALE_SMOOTH (which is
+ * how they used to be scaled). This does not use the icon cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public
+class SwingIconScalingBenchmark {
+    // 0 is not scaled
+    @Param({"0", "16"})
+    public int iconHeight;
+
+    private String imagePath;
+
+    @Setup
+    public
+    void setup() throws Exception {
+        imagePath = BenchmarkImages.makePngFile(0, 64).getAbsolutePath();
+    }
+
+    @Benchmark
+    public
+    BufferedImage progressiveBilinear() {
+        final BufferedImage image = IconScaler.loadImage(imagePath);
+        if (iconHeight == 0) {
+            return image;
+        }
+        return IconScaler.scale(image, iconHeight, iconHeight);
+    }
+
+    @Benchmark
+    public
+    ImageIcon scaleSmooth() {
+        ImageIcon icon = new ImageIcon(Toolkit.getDefaultToolkit().createImage(imagePath));
+        if (iconHeight != 0) {
+            // ImageIcon waits for the scaled image to be made
+            icon = new ImageIcon(icon.getImage().getScaledInstance(iconHeight, iconHeight, Image.SCALE_SMOOTH));
+        }
+        return icon;
+    }
+}
@@ -13,7 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package dorkbox.systemTray.linux.jna;
+package dorkbox.util.jna;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
@@ -23,11 +23,22 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Helper method to get the library info from JNA when registering via direct map
+ * Helper method to get the library info from JNA when registering via direct map. This is the one place where the direct-mapped
+ * libraries are loaded (for the SystemTray and the Utils bindings).
+ *
+ * Direct-mapping, See: https://github.com/java-native-access/jna/blob/master/www/DirectMapping.md
  */
+public
 class JnaHelper {
+    /**
+     * Loads the library, and binds all of the native methods of the class to it.
+     *
+     * @return the library that was loaded
+     *
+     * @throws IllegalArgumentException if the library cannot be loaded
+     */
     @SuppressWarnings("unchecked")
-    static
+    public static
     NativeLibrary register(final String libraryName, final Class<?> clazz) throws IllegalArgumentException {
         final Map<String, Object> options = new HashMap<String, Object>();
         options.put(Library.OPTION_CLASSLOADER, clazz.getClassLoader());
@@ -15,7 +15,6 @@
  */
 package dorkbox.util.jna.linux;
 
-import com.sun.jna.Library;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 import dorkbox.util.Keep;
@@ -24,31 +23,37 @@ import dorkbox.util.jna.linux.Gobject.GObjectStruct;
 import java.util.Arrays;
 import java.util.List;
 
-/* bindings for libappindicator */
+/**
+ * bindings for libappindicator
+ *
+ * Direct-mapping, See: https://github.com/java-native-access/jna/blob/master/www/DirectMapping.md
+ */
 public
-interface AppIndicator extends Library {
+class AppIndicator {
     // effing retarded. There are DIFFERENT versions, of which they all share the same basic compatibility (of the methods that
     // we use), however -- we cannot just LOAD via the 'base-name', we actually have to try each one. There are bash commands that
     // will tell us the linked library name, however - I'd rather not run bash commands to determine this. This is so hacky it makes me
     // sick.
-
-    AppIndicator INSTANCE = AppIndicatorQuery.get();
+    static {
+        AppIndicatorQuery.load();
+    }
 
     /** Necessary to provide warnings, because libappindicator3 is a piece of shit. */
-    boolean IS_VERSION_3 = AppIndicatorQuery.isVersion3;
+    public static final boolean IS_VERSION_3 = AppIndicatorQuery.isVersion3;
 
-    int CATEGORY_APPLICATION_STATUS = 0;
-    int CATEGORY_COMMUNICATIONS = 1;
-    int CATEGORY_SYSTEM_SERVICES = 2;
-    int CATEGORY_HARDWARE = 3;
-    int CATEGORY_OTHER = 4;
+    public static final int CATEGORY_APPLICATION_STATUS = 0;
+    public static final int CATEGORY_COMMUNICATIONS = 1;
+    public static final int CATEGORY_SYSTEM_SERVICES = 2;
+    public static final int CATEGORY_HARDWARE = 3;
+    public static final int CATEGORY_OTHER = 4;
 
-    int STATUS_PASSIVE = 0;
-    int STATUS_ACTIVE = 1;
-    int STATUS_ATTENTION = 2;
+    public static final int STATUS_PASSIVE = 0;
+    public static final int STATUS_ACTIVE = 1;
+    public static final int STATUS_ATTENTION = 2;
 
 
     @Keep
+    public static
     class AppIndicatorInstanceStruct extends Structure {
         public GObjectStruct parent;
         public Pointer priv;
@@ -63,9 +68,9 @@ interface AppIndicator extends Library {
     // Note: AppIndicators DO NOT support tooltips, as per mark shuttleworth. Rather stupid IMHO.
     // See: https://bugs.launchpad.net/indicator-application/+bug/527458/comments/12
 
-    AppIndicatorInstanceStruct app_indicator_new(String id, String icon_name, int category);
+    public static native AppIndicatorInstanceStruct app_indicator_new(String id, String icon_name, int category);
 
-    void app_indicator_set_status(AppIndicatorInstanceStruct self, int status);
-    void app_indicator_set_menu(AppIndicatorInstanceStruct self, Pointer menu);
-    void app_indicator_set_icon(AppIndicatorInstanceStruct self, String icon_name);
+    public static native void app_indicator_set_status(AppIndicatorInstanceStruct self, int status);
+    public static native void app_indicator_set_menu(AppIndicatorInstanceStruct self, Pointer menu);
+    public static native void app_indicator_set_icon(AppIndicatorInstanceStruct self, String icon_name);
 }
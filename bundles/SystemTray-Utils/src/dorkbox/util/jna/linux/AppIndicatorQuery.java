@@ -16,7 +16,8 @@
 
 package dorkbox.util.jna.linux;
 
-import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import dorkbox.util.jna.JnaHelper;
 
 /**
  * Helper for AppIndicator, because it is absolutely mindboggling how those whom maintain the standard, can't agree to what that standard
@@ -25,7 +26,7 @@ import com.sun.jna.Native;
 class AppIndicatorQuery {
 
     /**
-     * must call get() before accessing this! Only "AppIndicator" interface should access this!
+     * must call load() before accessing this! Only "AppIndicator" class should access this!
      */
     static volatile boolean isVersion3 = false;
 
@@ -35,86 +36,75 @@ class AppIndicatorQuery {
     static volatile boolean isLoaded = false;
 
 
-    public static
-    AppIndicator get() {
-        Object library;
+    /**
+     * Binds the native methods of {@link AppIndicator} to the library that is found. Only the "AppIndicator" class should call this!
+     */
+    static
+    void load() {
+        NativeLibrary library;
 
         // NOTE: GtkSupport uses this info to figure out WHAT VERSION OF GTK to use: appindiactor1 -> GTk2, appindicator3 -> GTK3.
 
         if (GtkSupport.FORCE_GTK2) {
             // try loading appindicator1 first, maybe it's there?
-
-            try {
-                library = Native.loadLibrary("appindicator1", AppIndicator.class);
-                if (library != null) {
-                    return (AppIndicator) library;
-                }
-            } catch (Throwable ignored) {
+            if (register("appindicator1") != null) {
+                return;
             }
         }
 
         // start with base version
-        try {
-            library = Native.loadLibrary("appindicator", AppIndicator.class);
-            if (library != null) {
-                String s = library.toString();
-                if (s.indexOf("appindicator3") > 0) {
-                    isVersion3 = true;
-                }
-
-                isLoaded = true;
-                return (AppIndicator) library;
+        library = register("appindicator");
+        if (library != null) {
+            if (library.getFile() != null && library.getFile().getName().contains("appindicator3")) {
+                isVersion3 = true;
             }
-        } catch (Throwable ignored) {
+            return;
         }
 
         // whoops. Symbolic links are bugged out. Look manually for it...
 
-        try {
-            library = Native.loadLibrary("appindicator1", AppIndicator.class);
-            if (library != null) {
-                return (AppIndicator) library;
-            }
-        } catch (Throwable ignored) {
+        if (register("appindicator1") != null) {
+            return;
         }
 
         // now check all others. super hacky way to do this.
         for (int i = 10; i >= 0; i--) {
-            try {
-                library = Native.loadLibrary("appindicator" + i, AppIndicator.class);
-            } catch (Throwable ignored) {
-                library = null;
-            }
+            library = register("appindicator" + i);
 
             if (library != null) {
-                String s = library.toString();
                 // version 3 WILL NOT work with icons in the menu. This allows us to show a warning (in the System tray initialization)
-                if (i == 3 || s.indexOf("appindicator3") > 0) {
+                if (i == 3 || (library.getFile() != null && library.getFile().getName().contains("appindicator3"))) {
                     isVersion3 = true;
                 }
-                return (AppIndicator) library;
+                return;
             }
         }
 
         // another type. who knows...
-        try {
-            library = Native.loadLibrary("appindicator-gtk", AppIndicator.class);
-            if (library != null) {
-                return (AppIndicator) library;
-            }
-        } catch (Throwable ignored) {
+        if (register("appindicator-gtk") != null) {
+            return;
         }
 
         // this is HORRID. such a PITA
-        try {
-            library = Native.loadLibrary("appindicator-gtk3", AppIndicator.class);
-            if (library != null) {
-                return (AppIndicator) library;
-            }
-        } catch (Throwable ignored) {
+        if (register("appindicator-gtk3") != null) {
+            return;
         }
 
         throw new RuntimeException("We apologize for this, but we are unable to determine the appIndicator library is in use, if " +
                                    "or even if it is in use... Please create an issue for this and include your OS type and configuration.");
     }
+
+    /**
+     * @return the library, if it was loaded (and the native methods of {@link AppIndicator} are bound to it), otherwise null
+     */
+    private static
+    NativeLibrary register(final String libraryName) {
+        try {
+            final NativeLibrary library = JnaHelper.register(libraryName, AppIndicator.class);
+            isLoaded = true;
+            return library;
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
 }
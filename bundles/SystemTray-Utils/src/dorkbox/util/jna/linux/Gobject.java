@@ -15,24 +15,36 @@
  */
 package dorkbox.util.jna.linux;
 
-import com.sun.jna.*;
+import com.sun.jna.Callback;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
 import dorkbox.util.Keep;
+import dorkbox.util.jna.JnaHelper;
 import dorkbox.util.jna.linux.Gtk.GdkEventButton;
 
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * bindings for libgobject-2.0
+ *
+ * Direct-mapping, See: https://github.com/java-native-access/jna/blob/master/www/DirectMapping.md
+ */
 public
-interface Gobject extends Library {
-    Gobject INSTANCE = (Gobject) Native.loadLibrary("gobject-2.0", Gobject.class);
+class Gobject {
+    static {
+        JnaHelper.register("gobject-2.0", Gobject.class);
+    }
 
     @Keep
+    public static
     class GTypeClassStruct extends Structure {
-        public
+        public static
         class ByValue extends GTypeClassStruct implements Structure.ByValue {}
 
 
-        public
+        public static
         class ByReference extends GTypeClassStruct implements Structure.ByReference {}
 
 
@@ -47,12 +59,13 @@ interface Gobject extends Library {
 
 
     @Keep
+    public static
     class GTypeInstanceStruct extends Structure {
-        public
+        public static
         class ByValue extends GTypeInstanceStruct implements Structure.ByValue {}
 
 
-        public
+        public static
         class ByReference extends GTypeInstanceStruct implements Structure.ByReference {}
 
 
@@ -67,12 +80,13 @@ interface Gobject extends Library {
 
 
     @Keep
+    public static
     class GObjectStruct extends Structure {
-        public
+        public static
         class ByValue extends GObjectStruct implements Structure.ByValue {}
 
 
-        public
+        public static
         class ByReference extends GObjectStruct implements Structure.ByReference {}
 
 
@@ -89,12 +103,13 @@ interface Gobject extends Library {
 
 
     @Keep
+    public static
     class GObjectClassStruct extends Structure {
-        public
+        public static
         class ByValue extends GObjectClassStruct implements Structure.ByValue {}
 
 
-        public
+        public static
         class ByReference extends GObjectClassStruct implements Structure.ByReference {}
 
 
@@ -127,6 +142,7 @@ interface Gobject extends Library {
 
 
     @Keep
+    public
     interface GCallback extends Callback {
         /**
          * @return Gtk.TRUE if we handled this event
@@ -136,12 +152,14 @@ interface Gobject extends Library {
 
 
     @Keep
+    public
     interface GEventCallback extends Callback {
         void callback(Pointer instance, GdkEventButton event);
     }
 
 
     @Keep
+    public static
     class xyPointer extends Structure {
         public int value;
 
@@ -154,21 +172,22 @@ interface Gobject extends Library {
 
 
     @Keep
+    public
     interface GPositionCallback extends Callback {
         void callback(Pointer menu, xyPointer x, xyPointer y, Pointer push_in_bool, Pointer user_data);
     }
 
 
 
-    void g_free(Pointer object);
-    void g_object_ref(Pointer object);
-    void g_object_unref(Pointer object);
-    void g_object_ref_sink(Pointer object);
+    public static native void g_free(Pointer object);
+    public static native void g_object_ref(Pointer object);
+    public static native void g_object_unref(Pointer object);
+    public static native void g_object_ref_sink(Pointer object);
 
-    NativeLong g_signal_connect_data(Pointer instance, String detailed_signal, Callback c_handler, Pointer data, Pointer destroy_data,
-                               int connect_flags);
+    public static native NativeLong g_signal_connect_data(Pointer instance, String detailed_signal, Callback c_handler, Pointer data,
+                                                          Pointer destroy_data, int connect_flags);
 
-    void g_signal_handler_disconnect(Pointer instance,  NativeLong longAddress);
+    public static native void g_signal_handler_disconnect(Pointer instance, NativeLong longAddress);
 
-    Pointer g_markup_printf_escaped(String pattern, String inputString);
+    public static native Pointer g_markup_printf_escaped(String pattern, String inputString);
 }
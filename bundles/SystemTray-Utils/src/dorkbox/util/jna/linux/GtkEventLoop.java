@@ -0,0 +1,913 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.util.jna.linux;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Function;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import dorkbox.util.Keep;
+import dorkbox.util.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The GTK event loop, and the single queue that everything for GTK is dispatched through. There is only one of these per JVM, and it is
+ * shared by everything that uses GTK (the SystemTray, and the Utils bindings).
+ * <p>
+ * Whoever loads the GTK library must call {@link #init(NativeLibrary)}, so that the loop uses the same library (GTK2 and GTK3 cannot
+ * both be loaded).
+ * <p>
+ * When we own the GTK main loop, the dispatched events run without the GDK global lock (nothing else uses GTK from another thread).
+ * When JavaFX/SWT own the main loop, they can use GTK from other threads, so the events run with the GDK lock held.
+ * <p>
+ * The dispatch queue holds at most {@link #QUEUE_CAPACITY} events. What happens when it is full is decided by {@link #OVERFLOW_POLICY},
+ * so that a thread that dispatches a lot of events (or a GTK thread that is stuck) never blocks the threads that dispatch forever, and
+ * the queue never grows past its capacity. Keyed events (see {@link #dispatch(Object, Runnable)}) are dropped, because only the newest
+ * one matters. Events without a key are never dropped silently, because the code that dispatched them (and the events after them)
+ * depend on them running. Instead, they are rejected: dispatch throws a {@link RejectedExecutionException}. Use
+ * {@link #tryDispatch(Runnable)} to find out that the queue is full without an exception (and without waiting).
+ * <p>
+ * Direct-mapping, See: https://github.com/java-native-access/jna/blob/master/www/DirectMapping.md
+ */
+public
+class GtkEventLoop {
+    /**
+     * When the dispatch queue is full, wait (up to {@link #BLOCK_TIMEOUT}) for there to be room. If there isn't, a keyed event is dropped
+     * and an event without a key is rejected.
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+    /**
+     * When the dispatch queue is full, the oldest keyed event in the queue is dropped to make room. If there is none, a keyed event is
+     * dropped and an event without a key is rejected.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    /** When the dispatch queue is full, dispatch throws a {@link RejectedExecutionException} (a keyed event is also dropped). */
+    public static final int OVERFLOW_FAIL = 2;
+
+    // how an event is queued
+    private static final int EVENT = 0;
+    private static final int KEYED_EVENT = 1;
+    private static final int TRY_EVENT = 2;
+    private static final int SHUTDOWN_EVENT = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(GtkEventLoop.class);
+
+    @Property
+    /**
+     * How long (in milliseconds) the GTK thread will run dispatched events before letting GTK handle its own events. Any events that
+     * are left over run on the next pass of the GTK event loop. 0 to run all of the dispatched events at once.
+     */
+    public static int DISPATCH_TIME_BUDGET = 10;
+
+    @Property
+    /**
+     * How long (in milliseconds) to wait for the events that were dispatched before shutdown to finish running.
+     */
+    public static int SHUTDOWN_TIMEOUT = 2000;
+
+    @Property
+    /**
+     * The most events that can be waiting in the dispatch queue. 0 for no limit.
+     */
+    public static int QUEUE_CAPACITY = 1024;
+
+    @Property
+    /**
+     * What happens when the dispatch queue is full: {@link #OVERFLOW_BLOCK} (0), {@link #OVERFLOW_DROP_OLDEST} (1) or
+     * {@link #OVERFLOW_FAIL} (2). Keyed events are dropped, and events without a key are rejected (dispatch throws a
+     * RejectedExecutionException).
+     */
+    public static int OVERFLOW_POLICY = OVERFLOW_BLOCK;
+
+    @Property
+    /**
+     * How long (in milliseconds) dispatch waits for room in the dispatch queue (when the policy is {@link #OVERFLOW_BLOCK}), before a
+     * keyed event is dropped (or an event without a key is rejected).
+     */
+    public static int BLOCK_TIMEOUT = 1000;
+
+    @Keep
+    public
+    interface SourceFunc extends Callback {
+        /**
+         * @return TRUE to be called again, FALSE to be removed (and not called again)
+         */
+        int callback(Pointer data);
+    }
+
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+
+    private static NativeLibrary library = null;
+
+    private static boolean alreadyRunningGTK = false;
+    private static boolean useGdkLock = false;
+    private static volatile boolean started = false;
+    private static volatile boolean isShutdown = false;
+
+    // the thread that runs gtk_main (only if we started the loop)
+    private static volatile Thread gtkUpdateThread = null;
+
+    // the thread that is running dispatched events, when JavaFX/SWT own the GTK thread
+    private static volatile Thread dispatchThread = null;
+
+    // many threads add to this, only the GTK thread takes from it
+    private static final ConcurrentLinkedQueue<Runnable> dispatchQueue = new ConcurrentLinkedQueue<Runnable>();
+
+    // how many events are in the dispatch queue. This is what the queue capacity is checked against
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+
+    // threads that are waiting for room in the dispatch queue wait on this
+    private static final Object queueSpace = new Object();
+    private static final AtomicInteger waitingThreads = new AtomicInteger();
+
+    // the keyed events that are in the dispatch queue (and have not run yet), so that newer events with the same key replace them
+    private static final ConcurrentHashMap<Object, KeyedEvent> pendingKeyedEvents = new ConcurrentHashMap<Object, KeyedEvent>();
+
+    private static final AtomicLong dispatchedEvents = new AtomicLong();
+    private static final AtomicLong droppedEvents = new AtomicLong();
+    private static final AtomicLong coalescedEvents = new AtomicLong();
+    private static final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    // true when the dispatch callback is waiting to be (or is being) called by GTK, so that GTK is only told about it once
+    private static final AtomicBoolean isDispatchScheduled = new AtomicBoolean(false);
+
+    // have to save this in a field to prevent GC on the object (since it goes out-of-scope from java)
+    private static final SourceFunc dispatchCallback = new SourceFunc() {
+        @Override
+        public
+        int callback(final Pointer data) {
+            return runDispatchQueue();
+        }
+    };
+
+    // the callbacks for dispatchAfter()/dispatchEvery(), that GTK is not done with yet
+    private static final Set<SourceFunc> delayedCallbacks = Collections.newSetFromMap(new ConcurrentHashMap<SourceFunc, Boolean>());
+
+
+    /**
+     * Binds the event loop to the GTK library that was loaded. Only the first library is used, calls after that do nothing.
+     *
+     * @return true if the event loop uses this library (the same library file, even if it was loaded by a different classloader)
+     */
+    public static synchronized
+    boolean init(final NativeLibrary gtkLibrary) {
+        if (library != null) {
+            return isSameLibrary(library, gtkLibrary);
+        }
+
+        // glib (g_idle_add, etc) is always loaded by GTK, so it is found via the GTK library
+        Native.register(GtkEventLoop.class, gtkLibrary);
+        library = gtkLibrary;
+
+        // when running inside of JavaFX, this will be '1'. All other times this should be '0'
+        // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
+        alreadyRunningGTK = gtk_main_level() != 0;
+        return true;
+    }
+
+    /**
+     * JNA keeps a NativeLibrary per classloader, so (in OSGi) the SystemTray and the Utils bindings get different instances for the same
+     * GTK library.
+     */
+    private static
+    boolean isSameLibrary(final NativeLibrary library1, final NativeLibrary library2) {
+        if (library1 == library2) {
+            return true;
+        }
+
+        final File file1 = library1.getFile();
+        final File file2 = library2.getFile();
+        if (file1 != null && file2 != null) {
+            try {
+                return file1.getCanonicalFile().equals(file2.getCanonicalFile());
+            } catch (IOException e) {
+                return file1.getAbsoluteFile().equals(file2.getAbsoluteFile());
+            }
+        }
+
+        return library1.getName().equals(library2.getName());
+    }
+
+    /**
+     * @return true if someone else (JavaFX/SWT) was already running the GTK main loop when GTK was loaded
+     */
+    public static synchronized
+    boolean isAlreadyRunning() {
+        return alreadyRunningGTK;
+    }
+
+    /**
+     * Starts the GTK main loop (on a new thread), unless it has already started or someone else (JavaFX/SWT) is running it.
+     *
+     * @param isCompatibilityMode true if JavaFX/SWT will run the GTK main loop (even if they have not started it yet)
+     *
+     * @return true if the GTK main loop was started by this call
+     */
+    public static synchronized
+    boolean start(final boolean isCompatibilityMode) {
+        if (library == null) {
+            throw new IllegalStateException("The GTK library has not been loaded");
+        }
+
+        // only permit one startup at a time
+        if (started) {
+            return false;
+        }
+        useGdkLock = alreadyRunningGTK || isCompatibilityMode;
+        isShutdown = false;
+        started = true;
+
+        // If JavaFX/SWT is used, this is UNNECESSARY
+        if (alreadyRunningGTK) {
+            scheduleDispatch();
+            return false;
+        }
+
+        // only necessary if we are the only GTK instance running...
+        final CountDownLatch blockUntilStarted = new CountDownLatch(1);
+
+        final Thread thread = new Thread() {
+            @Override
+            public
+            void run() {
+                // prep for the event loop.
+                gdk_threads_init();
+                gdk_threads_enter();
+
+                try {
+                    // only necessary for glib older than 2.32
+                    Function.getFunction("gthread-2.0", "g_thread_init").invoke(new Object[] {null});
+                } catch (Throwable ignored) {
+                }
+
+                if (!isCompatibilityMode) {
+                    gtk_init_check(0);
+                }
+
+                // notify our main thread to continue
+                blockUntilStarted.countDown();
+
+                if (!isCompatibilityMode) {
+                    // blocks unit quit. The GDK lock is released while the loop waits for events.
+                    gtk_main();
+                }
+
+                gdk_threads_leave();
+            }
+        };
+        thread.setName("GTK Native Event Loop");
+        gtkUpdateThread = thread;
+        thread.start();
+
+        try {
+            // we CANNOT continue until the GTK thread has started!
+            blockUntilStarted.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        // anything dispatched before the loop was started
+        scheduleDispatch();
+        return true;
+    }
+
+    /**
+     * Stops the GTK main loop (if we started it). Everything that was dispatched before this runs first, and this waits (up to
+     * {@link #SHUTDOWN_TIMEOUT}) for it to finish. Anything dispatched after this is ignored.
+     */
+    public static
+    void shutdown() {
+        final boolean quitLoop;
+        final Thread loopThread;
+        synchronized (GtkEventLoop.class) {
+            if (!started) {
+                return;
+            }
+
+            quitLoop = !useGdkLock;
+            loopThread = gtkUpdateThread;
+
+            // nothing else can be dispatched (and threads waiting for room in the queue give up)
+            isShutdown = true;
+        }
+
+        synchronized (queueSpace) {
+            queueSpace.notifyAll();
+        }
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        // this runs after everything that was dispatched before it. It is queued even if the queue is full
+        final Runnable finish = new Runnable() {
+            @Override
+            public
+            void run() {
+                // If JavaFX/SWT is used, this is UNNECESSARY (and will break SWT/JavaFX shutdown)
+                if (quitLoop) {
+                    gtk_main_quit();
+                }
+
+                finished.countDown();
+            }
+        };
+        if (isDispatchThread()) {
+            finish.run();
+        }
+        else {
+            enqueue(finish, SHUTDOWN_EVENT);
+        }
+
+        synchronized (GtkEventLoop.class) {
+            started = false;
+            gtkUpdateThread = null;
+        }
+
+        if (isDispatchThread()) {
+            // the loop quits once we return to it
+            return;
+        }
+
+        try {
+            if (finished.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS) && quitLoop && loopThread != null) {
+                loopThread.join(SHUTDOWN_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if the current thread is the GTK thread (running the event loop, or running dispatched events)
+     */
+    public static
+    boolean isDispatchThread() {
+        final Thread currentThread = Thread.currentThread();
+        return gtkUpdateThread == currentThread || dispatchThread == currentThread;
+    }
+
+    /**
+     * Best practices for GTK, is to call EVERYTHING for it on the GTK THREAD. This accomplishes that.
+     * <p>
+     * If the dispatch queue is full, what happens depends on {@link #OVERFLOW_POLICY}. The event is never dropped silently, but it can be
+     * rejected.
+     *
+     * @throws RejectedExecutionException if the dispatch queue is full (and there is no room after waiting, or no keyed event to drop,
+     *                                    depending on the policy). The event will not run.
+     */
+    public static
+    void dispatch(final Runnable runnable) {
+        if (isDispatchThread()) {
+            // if we are ALREADY inside the native event
+            runnable.run();
+        } else {
+            enqueue(runnable, EVENT);
+        }
+    }
+
+    /**
+     * Dispatches the runnable to the GTK thread, only if there is room in the dispatch queue right now. This never waits, and never
+     * drops other events to make room.
+     *
+     * @return true if the runnable was dispatched (or has already run, on the GTK thread), false if the dispatch queue is full or the
+     * event loop has been shut down
+     */
+    public static
+    boolean tryDispatch(final Runnable runnable) {
+        if (isDispatchThread()) {
+            runnable.run();
+            return true;
+        }
+
+        return enqueue(runnable, TRY_EVENT);
+    }
+
+    /**
+     * Dispatches the runnable to the GTK thread, and replaces the event with the same key if it is still waiting in the dispatch queue
+     * (it keeps its place in the queue). This is for events where only the newest one matters (for example, setting the same label
+     * over and over), and they do not take up more room in the queue than one event per key.
+     * <p>
+     * If the dispatch queue is full, what happens depends on {@link #OVERFLOW_POLICY}. A dropped event is logged, and the next event with
+     * the same key is queued again.
+     *
+     * @param key identifies which events replace each other. It must have equals/hashCode
+     *
+     * @throws RejectedExecutionException if the dispatch queue is full, and the policy is {@link #OVERFLOW_FAIL}
+     */
+    public static
+    void dispatch(final Object key, final Runnable runnable) {
+        if (isDispatchThread()) {
+            // the older event (if any) must not run after this one
+            final KeyedEvent pending = pendingKeyedEvents.get(key);
+            if (pending != null && pending.cancel()) {
+                coalescedEvents.incrementAndGet();
+            }
+
+            runnable.run();
+            return;
+        }
+
+        while (true) {
+            final KeyedEvent pending = pendingKeyedEvents.get(key);
+            if (pending != null) {
+                if (pending.replace(runnable)) {
+                    coalescedEvents.incrementAndGet();
+                    return;
+                }
+
+                // it is already running (or was dropped), so it can't be replaced
+                pendingKeyedEvents.remove(key, pending);
+                continue;
+            }
+
+            final KeyedEvent event = new KeyedEvent(key, runnable);
+            if (pendingKeyedEvents.putIfAbsent(key, event) == null) {
+                boolean queued = false;
+                try {
+                    queued = enqueue(event, KEYED_EVENT);
+                } finally {
+                    if (!queued) {
+                        event.cancel();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param type how the event is queued: {@link #EVENT}, {@link #KEYED_EVENT} (it can be dropped), {@link #TRY_EVENT} (it is only queued
+     *             if there is room now) or {@link #SHUTDOWN_EVENT} (the last event, which is queued even after shutdown, and even if the
+     *             queue is full)
+     *
+     * @return true if the event was queued, false if it was dropped (or there was no room for it)
+     *
+     * @throws RejectedExecutionException if there is no room for an event without a key, or for a keyed event when the policy is
+     *                                    {@link #OVERFLOW_FAIL}
+     */
+    private static
+    boolean enqueue(final Runnable runnable, final int type) {
+        if (isShutdown && type != SHUTDOWN_EVENT) {
+            // there is no loop to run it
+            return false;
+        }
+
+        boolean hasWaited = false;
+        long deadline = 0L;
+        while (true) {
+            final int capacity = QUEUE_CAPACITY;
+            final int depth = queueDepth.get();
+
+            if (type == SHUTDOWN_EVENT || capacity <= 0 || depth < capacity) {
+                if (!queueDepth.compareAndSet(depth, depth + 1)) {
+                    continue;
+                }
+                updateMax(depth + 1);
+                dispatchQueue.offer(runnable);
+                break;
+            }
+
+            // the queue is full
+            if (type == TRY_EVENT) {
+                return false;
+            }
+
+            final int policy = OVERFLOW_POLICY;
+            if (policy == OVERFLOW_DROP_OLDEST) {
+                if (dropOldestKeyedEvent(capacity)) {
+                    // the new event takes the place of the old one, so the depth stays the same
+                    dispatchQueue.offer(runnable);
+                    break;
+                }
+                // there is nothing in the queue that can be dropped instead
+            }
+            else if (policy == OVERFLOW_BLOCK) {
+                // it only waits up to the timeout in total, even if other threads take the room first
+                if (!hasWaited) {
+                    hasWaited = true;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT);
+                }
+                if (waitForSpace(deadline)) {
+                    continue;
+                }
+            }
+
+            if (type == KEYED_EVENT) {
+                dropped((KeyedEvent) runnable, capacity);
+                if (policy != OVERFLOW_FAIL) {
+                    return false;
+                }
+            }
+            else {
+                droppedEvents.incrementAndGet();
+            }
+
+            throw new RejectedExecutionException("The GTK dispatch queue is full (" + capacity + " events)");
+        }
+
+        dispatchedEvents.incrementAndGet();
+
+        // if the loop hasn't started, this is scheduled when it does
+        if (started) {
+            scheduleDispatch();
+        }
+        return true;
+    }
+
+    /**
+     * Waits (up to the deadline) for there to be room in the dispatch queue.
+     *
+     * @param deadline the System.nanoTime() to give up at
+     *
+     * @return true if there is room, false if it timed out
+     */
+    private static
+    boolean waitForSpace(final long deadline) {
+        waitingThreads.incrementAndGet();
+        try {
+            synchronized (queueSpace) {
+                while (QUEUE_CAPACITY > 0 && queueDepth.get() >= QUEUE_CAPACITY) {
+                    final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0 || isShutdown) {
+                        return false;
+                    }
+
+                    queueSpace.wait(remaining);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waitingThreads.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the oldest keyed event from the dispatch queue. Only keyed events are removed, because nothing depends on them running.
+     *
+     * @return false if there are no keyed events in the queue
+     */
+    private static
+    boolean dropOldestKeyedEvent(final int capacity) {
+        for (Runnable runnable : dispatchQueue) {
+            // the GTK thread might have just taken it from the queue
+            if (runnable instanceof KeyedEvent && dispatchQueue.remove(runnable)) {
+                dropped((KeyedEvent) runnable, capacity);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static
+    void dropped(final KeyedEvent event, final int capacity) {
+        final long dropped = droppedEvents.incrementAndGet();
+
+        // the next event with this key is queued again (instead of replacing this one)
+        event.cancel();
+
+        logger.warn("The GTK dispatch queue is full ({} events), so the event for '{}' was dropped ({} dropped so far)",
+                    capacity, event.key, dropped);
+    }
+
+    private static
+    void updateMax(final int depth) {
+        int current = maxQueueDepth.get();
+        while (depth > current && !maxQueueDepth.compareAndSet(current, depth)) {
+            current = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * @return how many events are waiting in the dispatch queue
+     */
+    public static
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the most events that have been waiting in the dispatch queue at the same time
+     */
+    public static
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return how many events have been added to the dispatch queue
+     */
+    public static
+    long getDispatchedEvents() {
+        return dispatchedEvents.get();
+    }
+
+    /**
+     * @return how many events were dropped (keyed events) or rejected (events without a key) because the dispatch queue was full
+     */
+    public static
+    long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return how many events were replaced by a newer event with the same key, see {@link #dispatch(Object, Runnable)}
+     */
+    public static
+    long getCoalescedEvents() {
+        return coalescedEvents.get();
+    }
+
+    /**
+     * Sets the dispatch queue metrics back to 0 (the max queue depth is set to the current depth)
+     */
+    public static
+    void resetMetrics() {
+        dispatchedEvents.set(0L);
+        droppedEvents.set(0L);
+        coalescedEvents.set(0L);
+        maxQueueDepth.set(queueDepth.get());
+    }
+
+    private static
+    void scheduleDispatch() {
+        // only the first event queued (since the queue was last emptied) has to wake up GTK
+        if (!dispatchQueue.isEmpty() && isDispatchScheduled.compareAndSet(false, true)) {
+            if (useGdkLock) {
+                gdk_threads_add_idle(dispatchCallback, null);
+            }
+            else {
+                g_idle_add(dispatchCallback, null);
+            }
+        }
+    }
+
+    /**
+     * Runs the runnable on the GTK thread, after (at least) the delay.
+     */
+    public static
+    void dispatchAfter(final int delayMillis, final Runnable runnable) {
+        final SourceFunc callback = new SourceFunc() {
+            @Override
+            public
+            int callback(final Pointer data) {
+                delayedCallbacks.remove(this);
+                runOnGtkThread(runnable);
+                return FALSE;
+            }
+        };
+
+        // have to save this, to prevent GC on the callback until GTK has called it
+        delayedCallbacks.add(callback);
+        addTimeout(delayMillis, callback);
+    }
+
+    /**
+     * Runs the runnable on the GTK thread every interval, until it is cancelled. If the GTK thread is busy, the missed runs are skipped
+     * (they are not queued up). Nothing is allocated for each run.
+     *
+     * @return a runnable that cancels it (from any thread)
+     */
+    public static
+    Runnable dispatchEvery(final int intervalMillis, final Runnable runnable) {
+        final AtomicBoolean isCancelled = new AtomicBoolean(false);
+
+        final SourceFunc callback = new SourceFunc() {
+            @Override
+            public
+            int callback(final Pointer data) {
+                if (isCancelled.get()) {
+                    delayedCallbacks.remove(this);
+                    return FALSE;
+                }
+
+                runOnGtkThread(runnable);
+                return TRUE;
+            }
+        };
+
+        // have to save this, to prevent GC on the callback until GTK is done with it
+        delayedCallbacks.add(callback);
+        addTimeout(intervalMillis, callback);
+
+        return new Runnable() {
+            @Override
+            public
+            void run() {
+                isCancelled.set(true);
+            }
+        };
+    }
+
+    private static
+    void addTimeout(final int intervalMillis, final SourceFunc callback) {
+        if (useGdkLock) {
+            gdk_threads_add_timeout(intervalMillis, callback, null);
+        }
+        else {
+            g_timeout_add(intervalMillis, callback, null);
+        }
+    }
+
+    /**
+     * Called by GTK, on the GTK thread. Anything dispatched by the runnable runs right away.
+     */
+    private static
+    void runOnGtkThread(final Runnable runnable) {
+        dispatchThread = Thread.currentThread();
+        try {
+            runnable.run();
+        } catch (Throwable t) {
+            t.printStackTrace();
+        } finally {
+            dispatchThread = null;
+        }
+    }
+
+    /**
+     * Called on the GTK thread. Runs the queued events, until the queue is empty or until the time budget has run out.
+     *
+     * @return TRUE to be called again (there are still events queued), FALSE if the queue is empty
+     */
+    private static
+    int runDispatchQueue() {
+        final long budget = TimeUnit.MILLISECONDS.toNanos(DISPATCH_TIME_BUDGET);
+        final long start = System.nanoTime();
+
+        dispatchThread = Thread.currentThread();
+        try {
+            Runnable runnable;
+            while ((runnable = dispatchQueue.poll()) != null) {
+                queueDepth.decrementAndGet();
+                if (waitingThreads.get() > 0) {
+                    synchronized (queueSpace) {
+                        queueSpace.notifyAll();
+                    }
+                }
+
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+
+                if (budget > 0 && System.nanoTime() - start >= budget && !dispatchQueue.isEmpty()) {
+                    // let GTK handle its own events, we'll be called again for the rest
+                    return TRUE;
+                }
+            }
+        } finally {
+            dispatchThread = null;
+        }
+
+        isDispatchScheduled.set(false);
+
+        // something might have been queued after the queue was empty, but before we were unscheduled (so it didn't wake up GTK)
+        if (!dispatchQueue.isEmpty() && isDispatchScheduled.compareAndSet(false, true)) {
+            return TRUE;
+        }
+
+        return FALSE;
+    }
+
+
+    /**
+     * An event that is replaced by newer events with the same key, until it runs
+     */
+    private static final
+    class KeyedEvent implements Runnable {
+        private final Object key;
+
+        // guarded by 'this'. null once it has run (or was cancelled)
+        private Runnable runnable;
+
+        KeyedEvent(final Object key, final Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+
+        /**
+         * @return false if it has already run (or was cancelled)
+         */
+        synchronized
+        boolean replace(final Runnable runnable) {
+            if (this.runnable == null) {
+                return false;
+            }
+
+            this.runnable = runnable;
+            return true;
+        }
+
+        /**
+         * @return false if it has already run (or was cancelled)
+         */
+        boolean cancel() {
+            pendingKeyedEvents.remove(key, this);
+
+            synchronized (this) {
+                final boolean wasPending = this.runnable != null;
+                this.runnable = null;
+                return wasPending;
+            }
+        }
+
+        @Override
+        public
+        void run() {
+            // newer events with the same key are queued again after this
+            pendingKeyedEvents.remove(key, this);
+
+            final Runnable runnable;
+            synchronized (this) {
+                runnable = this.runnable;
+                this.runnable = null;
+            }
+
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+    }
+
+
+    /**
+     * This would NORMALLY have a 2nd argument that is a String[] -- however JNA direct-mapping DOES NOT support this. We are lucky
+     * enough that we just pass 'null' as the second argument, therefore, we don't have to define that parameter here.
+     */
+    private static native boolean gtk_init_check(int argc);
+
+    /**
+     * Runs the main loop until gtk_main_quit() is called. You can nest calls to gtk_main(). In that case gtk_main_quit() will make the
+     * innermost invocation of the main loop return.
+     */
+    private static native void gtk_main();
+
+    /**
+     * aks for the current nesting level of the main loop. Useful to determine (at startup) if GTK is already running
+     */
+    private static native int gtk_main_level();
+
+    /**
+     * Makes the innermost invocation of the main loop return when it regains control.
+     */
+    private static native void gtk_main_quit();
+
+    private static native void gdk_threads_init();
+
+    // tricky business. This should only be in the dispatch thread
+    private static native void gdk_threads_enter();
+    private static native void gdk_threads_leave();
+
+    /**
+     * Calls the callback (with the GDK lock held) when there is nothing else to do.
+     *
+     * @return TRUE to run this callback again, FALSE to remove from the list of event sources (and not call it again)
+     */
+    private static native int gdk_threads_add_idle(SourceFunc callback, Pointer data);
+
+    /**
+     * Calls the callback (with the GDK lock held) after the interval (in milliseconds), until it returns FALSE
+     */
+    private static native int gdk_threads_add_timeout(int interval, SourceFunc callback, Pointer data);
+
+    /**
+     * Calls the callback (without the GDK lock) when there is nothing else to do, until it returns FALSE
+     */
+    private static native int g_idle_add(SourceFunc callback, Pointer data);
+
+    /**
+     * Calls the callback (without the GDK lock) after the interval (in milliseconds), until it returns FALSE
+     */
+    private static native int g_timeout_add(int interval, SourceFunc callback, Pointer data);
+}
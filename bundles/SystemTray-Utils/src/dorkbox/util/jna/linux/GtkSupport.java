@@ -16,11 +16,10 @@
 package dorkbox.util.jna.linux;
 
 import com.sun.jna.Function;
-import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
 import dorkbox.util.Property;
+import dorkbox.util.jna.JnaHelper;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
 
 public
 class GtkSupport {
@@ -29,80 +28,42 @@ class GtkSupport {
     // Since version >= 2.24, threads can only init once. Multiple calls do nothing, and we can nest gtk_main()
     // in a nested loop.
 
-    private static volatile boolean started = false;
-    private static final ArrayBlockingQueue<Runnable> dispatchEvents = new ArrayBlockingQueue<Runnable>(256);
-    private static volatile Thread gtkDispatchThread;
-
     @Property
     /** Forces the system to always choose GTK2 (even when GTK3 might be available). JavaFX uses GTK2! */
     public static boolean FORCE_GTK2 = false;
 
     /**
-     * must call get() before accessing this! Only "Gtk" interface should access this!
+     * must call load() before accessing this! Only "Gtk" class should access this!
      */
     static volatile Function gtk_status_icon_position_menu = null;
 
     public static volatile boolean isGtk2 = false;
 
-    private static volatile boolean alreadyRunningGTK = false;
-
     /**
-     * Helper for GTK, because we could have v3 or v2.
+     * Helper for GTK, because we could have v3 or v2. Binds the native methods of {@link Gtk} to the library that is found. Only the
+     * "Gtk" class should call this!
      *
      * Observations: JavaFX uses GTK2, and we can't load GTK3 if GTK2 symbols are loaded
      */
-    @SuppressWarnings("Duplicates")
-    public static
-    Gtk get() {
-        Gtk library;
-
+    static
+    void load() {
         boolean shouldUseGtk2 = GtkSupport.FORCE_GTK2;
 
         // in some cases, we ALWAYS want to try GTK2 first
-        if (shouldUseGtk2) {
-            try {
-                gtk_status_icon_position_menu = Function.getFunction("gtk-x11-2.0", "gtk_status_icon_position_menu");
-                library = (Gtk) Native.loadLibrary("gtk-x11-2.0", Gtk.class);
-                if (library != null) {
-                    isGtk2 = true;
-
-                    // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                    // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                    alreadyRunningGTK = library.gtk_main_level() != 0;
-                    return library;
-                }
-            } catch (Throwable ignored) {
-            }
+        if (shouldUseGtk2 && register("gtk-x11-2.0")) {
+            return;
         }
 
         if (AppIndicatorQuery.isLoaded) {
             if (AppIndicatorQuery.isVersion3) {
                 // appindicator3 requires GTK3
-                try {
-                    gtk_status_icon_position_menu = Function.getFunction("libgtk-3.so.0", "gtk_status_icon_position_menu");
-                    library = (Gtk) Native.loadLibrary("libgtk-3.so.0", Gtk.class);
-                    if (library != null) {
-                        // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                        // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                        alreadyRunningGTK = library.gtk_main_level() != 0;
-                        return library;
-                    }
-                } catch (Throwable ignored) {
+                if (register("libgtk-3.so.0")) {
+                    return;
                 }
             } else {
                 // appindicator1 requires GTK2
-                try {
-                    gtk_status_icon_position_menu = Function.getFunction("gtk-x11-2.0", "gtk_status_icon_position_menu");
-                    library = (Gtk) Native.loadLibrary("gtk-x11-2.0", Gtk.class);
-                    if (library != null) {
-                        isGtk2 = true;
-
-                        // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                        // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                        alreadyRunningGTK = library.gtk_main_level() != 0;
-                        return library;
-                    }
-                } catch (Throwable ignored) {
+                if (register("gtk-x11-2.0")) {
+                    return;
                 }
             }
         }
@@ -110,142 +71,86 @@ class GtkSupport {
         // now for the defaults...
 
         // start with version 3
-        try {
-            gtk_status_icon_position_menu = Function.getFunction("libgtk-3.so.0", "gtk_status_icon_position_menu");
-            library = (Gtk) Native.loadLibrary("libgtk-3.so.0", Gtk.class);
-            if (library != null) {
-                // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                alreadyRunningGTK = library.gtk_main_level() != 0;
-                return library;
-            }
-        } catch (Throwable ignored) {
+        if (register("libgtk-3.so.0")) {
+            return;
         }
 
         // now version 2
-        try {
-            gtk_status_icon_position_menu = Function.getFunction("gtk-x11-2.0", "gtk_status_icon_position_menu");
-            library = (Gtk) Native.loadLibrary("gtk-x11-2.0", Gtk.class);
-            if (library != null) {
-                isGtk2 = true;
-
-                // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                alreadyRunningGTK = library.gtk_main_level() != 0;
-                return library;
-            }
-        } catch (Throwable ignored) {
+        if (register("gtk-x11-2.0")) {
+            return;
         }
 
         throw new RuntimeException("We apologize for this, but we are unable to determine the GTK library is in use, if " +
                                    "or even if it is in use... Please create an issue for this and include your OS type and configuration.");
     }
 
+    /**
+     * @return true if the GTK library was loaded (and the native methods of {@link Gtk} are bound to it)
+     */
+    private static
+    boolean register(final String libraryName) {
+        final NativeLibrary library;
+        try {
+            gtk_status_icon_position_menu = Function.getFunction(libraryName, "gtk_status_icon_position_menu");
+            library = JnaHelper.register(libraryName, Gtk.class);
+        } catch (Throwable ignored) {
+            return false;
+        }
+
+        isGtk2 = libraryName.equals("gtk-x11-2.0");
+
+        // there is only one GTK event loop, which is shared with anything else that uses GTK
+        if (!GtkEventLoop.init(library)) {
+            throw new RuntimeException("A different version of GTK has already been loaded, and both cannot be used at the same time.");
+        }
+        return true;
+    }
+
+    /**
+     * Starts the (shared) GTK event loop, if it isn't already running.
+     */
     public static
     void startGui() {
-        // only permit one startup per JVM instance
-        if (!started) {
-            started = true;
-
-            // GTK specifies that we ONLY run from a single thread. This guarantees that.
-            gtkDispatchThread = new Thread() {
-                @Override
-                public
-                void run() {
-                    final Gtk gtk = Gtk.INSTANCE;
-                    while (started) {
-                        try {
-                            final Runnable take = dispatchEvents.take();
-
-                            gtk.gdk_threads_enter();
-                            take.run();
-                            gtk.gdk_threads_leave();
-
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            };
-            gtkDispatchThread.setName("GTK Event Loop");
-            gtkDispatchThread.start();
-
-
-            // startup the GTK GUI event loop. There can be multiple/nested loops.
-
-            // If JavaFX/SWT is used, this is UNNECESSARY
-            if (!alreadyRunningGTK) {
-                // only necessary if we are the only GTK instance running...
-                final CountDownLatch blockUntilStarted = new CountDownLatch(1);
-                Thread gtkUpdateThread = new Thread() {
-                    @Override
-                    public
-                    void run() {
-                        Gtk gtk = Gtk.INSTANCE;
-
-                        // prep for the event loop.
-                        gtk.gdk_threads_init();
-                        gtk.gdk_threads_enter();
-
-                        gtk.gtk_init_check(0, null);
-
-                        // notify our main thread to continue
-                        blockUntilStarted.countDown();
-
-                        // blocks unit quit
-                        gtk.gtk_main();
-
-                        gtk.gdk_threads_leave();
-                    }
-                };
-                gtkUpdateThread.setName("GTK Event Loop (Native)");
-                gtkUpdateThread.start();
-
-                try {
-                    // we CANNOT continue until the GTK thread has started!
-                    blockUntilStarted.await();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        // makes sure GTK is loaded
+        Gtk.gtk_main_level();
+
+        GtkEventLoop.start(false);
     }
 
     /**
-     * Best practices for GTK, is to call EVERYTHING for it on a SINGLE THREAD. This accomplishes that.
+     * Best practices for GTK, is to call EVERYTHING for it on the GTK THREAD. This accomplishes that.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the dispatch queue is full, see {@link GtkEventLoop#OVERFLOW_POLICY}
      */
     public static
     void dispatch(Runnable runnable) {
-        try {
-            dispatchEvents.put(runnable);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        GtkEventLoop.dispatch(runnable);
     }
 
+    /**
+     * Dispatches the runnable to the GTK thread, and replaces the event with the same key if it is still waiting to run. If the dispatch
+     * queue is full, the event can be dropped. See {@link GtkEventLoop#dispatch(Object, Runnable)}
+     */
     public static
-    void shutdownGui() {
-        // If JavaFX/SWT is used, this is UNNECESSARY (an will break SWT/JavaFX shutdown)
-        if (!alreadyRunningGTK) {
-            Gtk.INSTANCE.gtk_main_quit();
-        }
+    void dispatch(Object key, Runnable runnable) {
+        GtkEventLoop.dispatch(key, runnable);
+    }
 
-        started = false;
-
-        // put it in a NEW dispatch event (so that we cleanup AFTER this one is finished)
-        dispatch(new Runnable() {
-            @Override
-            public
-            void run() {
-                new Thread(new Runnable() {
-                    @Override
-                    public
-                    void run() {
-                        // this should happen in a new thread
-                        gtkDispatchThread.interrupt();
-                    }
-                }).run();
-            }
-        });
+    /**
+     * Dispatches the runnable to the GTK thread, only if there is room in the dispatch queue right now (this never waits).
+     *
+     * @return false if the dispatch queue is full, see {@link GtkEventLoop#tryDispatch(Runnable)}
+     */
+    public static
+    boolean tryDispatch(Runnable runnable) {
+        return GtkEventLoop.tryDispatch(runnable);
+    }
+
+    /**
+     * Stops the GTK event loop (if we started it), after everything that was dispatched before this has run.
+     */
+    public static
+    void shutdownGui() {
+        GtkEventLoop.shutdown();
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import dorkbox.util.NamedThreadFactory;
+import dorkbox.util.Property;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the menu entry callbacks ({@link SystemTrayMenuAction#onClick(SystemTray, MenuEntry)}), so that a slow callback does not freeze
+ * the system tray. Without this, the callbacks run on the GTK main loop (or the Swing EDT), and nothing in the tray can be updated or
+ * clicked until the callback returns.
+ * <p>
+ * By default, callbacks for the same menu entry run one at a time (in the order they were clicked), and callbacks for different menu
+ * entries can run at the same time.
+ */
+public final
+class CallbackExecutor {
+    @Property
+    /**
+     * How many threads run the menu entry callbacks. 0 runs the callbacks on the GTK/Swing thread (the same as older versions).
+     */
+    public static int THREADS = 2;
+
+    @Property
+    /**
+     * If the JVM supports virtual threads (java 21+), run each callback on a new virtual thread instead of on the thread pool.
+     */
+    public static boolean USE_VIRTUAL_THREADS = true;
+
+    @Property
+    /**
+     * Callbacks for the same menu entry run one at a time, in the order they were clicked.
+     */
+    public static boolean ORDERED = true;
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public
+        void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Executor executor = null;
+
+    private static final AtomicLong callbackCount = new AtomicLong();
+    private static final AtomicLong queueTime = new AtomicLong();
+    private static final AtomicLong maxQueueTime = new AtomicLong();
+    private static final AtomicLong runTime = new AtomicLong();
+    private static final AtomicLong maxRunTime = new AtomicLong();
+
+    private
+    CallbackExecutor() {
+    }
+
+    /**
+     * Sets the executor that runs the menu entry callbacks. This replaces {@link #THREADS} and {@link #USE_VIRTUAL_THREADS}.
+     *
+     * @param executor the executor, or null to use the default executor.
+     */
+    public static synchronized
+    void setExecutor(final Executor executor) {
+        CallbackExecutor.executor = executor;
+    }
+
+    /**
+     * @return the executor that runs the menu entry callbacks. It is created the first time it is needed.
+     */
+    public static synchronized
+    Executor getExecutor() {
+        if (executor == null) {
+            executor = createDefault();
+        }
+        return executor;
+    }
+
+    /**
+     * Runs a callback that does not belong to a menu entry
+     */
+    public static
+    void execute(final Runnable callback) {
+        getExecutor().execute(new Task(callback));
+    }
+
+    /**
+     * @return how many callbacks have finished running
+     */
+    public static
+    long getCallbackCount() {
+        return callbackCount.get();
+    }
+
+    /**
+     * @return the total time that callbacks have waited before running (for ordered callbacks, this includes waiting for the earlier
+     *         callbacks of the same menu entry)
+     */
+    public static
+    long getQueueTime(final TimeUnit unit) {
+        return unit.convert(queueTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time that a callback has waited before running
+     */
+    public static
+    long getMaxQueueTime(final TimeUnit unit) {
+        return unit.convert(maxQueueTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the total time that callbacks have taken to run
+     */
+    public static
+    long getRunTime(final TimeUnit unit) {
+        return unit.convert(runTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time that a callback has taken to run
+     */
+    public static
+    long getMaxRunTime(final TimeUnit unit) {
+        return unit.convert(maxRunTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the callback metrics back to 0
+     */
+    public static
+    void resetMetrics() {
+        callbackCount.set(0L);
+        queueTime.set(0L);
+        maxQueueTime.set(0L);
+        runTime.set(0L);
+        maxRunTime.set(0L);
+    }
+
+    private static
+    Executor createDefault() {
+        if (THREADS <= 0) {
+            return SAME_THREAD;
+        }
+
+        if (USE_VIRTUAL_THREADS) {
+            try {
+                // only available on java 21+
+                final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) method.invoke(null);
+            } catch (Exception ignored) {
+            }
+        }
+
+        return Executors.newFixedThreadPool(THREADS, new NamedThreadFactory("SystemTray Callback"));
+    }
+
+    private static
+    void updateMax(final AtomicLong max, final long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+
+    /**
+     * Runs the callbacks for one menu entry. If {@link #ORDERED} is true, they run one at a time, in the order they were added.
+     */
+    public static final
+    class EntryQueue {
+        // guarded by 'this'
+        private final ArrayDeque<Task> tasks = new ArrayDeque<Task>(2);
+        private boolean isRunning = false;
+
+        private final Runnable runTasks = new Runnable() {
+            @Override
+            public
+            void run() {
+                while (true) {
+                    final Task task;
+                    synchronized (EntryQueue.this) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            isRunning = false;
+                            return;
+                        }
+                    }
+
+                    task.run();
+                }
+            }
+        };
+
+        public
+        void execute(final Runnable callback) {
+            final Task task = new Task(callback);
+
+            if (!ORDERED) {
+                getExecutor().execute(task);
+                return;
+            }
+
+            synchronized (this) {
+                tasks.add(task);
+                if (isRunning) {
+                    // the running thread will get to it
+                    return;
+                }
+                isRunning = true;
+            }
+
+            getExecutor().execute(runTasks);
+        }
+    }
+
+
+    private static final
+    class Task implements Runnable {
+        private final Runnable callback;
+        private final long queuedTime = System.nanoTime();
+
+        Task(final Runnable callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public
+        void run() {
+            final long startTime = System.nanoTime();
+            try {
+                callback.run();
+            } catch (Throwable throwable) {
+                SystemTray.logger.error("Error running the menu entry callback", throwable);
+            } finally {
+                final long endTime = System.nanoTime();
+                final long waited = startTime - queuedTime;
+                final long ran = endTime - startTime;
+
+                callbackCount.incrementAndGet();
+                queueTime.addAndGet(waited);
+                runTime.addAndGet(ran);
+                updateMax(maxQueueTime, waited);
+                updateMax(maxRunTime, ran);
+            }
+        }
+    }
+}
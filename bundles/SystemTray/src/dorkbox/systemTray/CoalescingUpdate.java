@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An update (for example, the text of a menu entry) where only the newest value matters. If the value is set again before the dispatch
+ * thread has applied it, the older value is replaced and only the newest value is applied (the update is only dispatched once).
+ *
+ * @param <T> the type of the value. Null is a valid value.
+ */
+public abstract
+class CoalescingUpdate<T> {
+    private static final Object NONE = new Object();
+
+    private final AtomicReference<Object> pending = new AtomicReference<Object>(NONE);
+
+    private final Runnable applyPending = new Runnable() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public
+        void run() {
+            final Object value = pending.getAndSet(NONE);
+            if (value != NONE) {
+                apply((T) value);
+            }
+        }
+    };
+
+    /**
+     * Sets the newest value. This can be called from any thread.
+     *
+     * @throws RuntimeException if the update could not be dispatched (for example, a RejectedExecutionException when the GTK dispatch
+     *                          queue is full). The value is not applied, and the next value is dispatched again.
+     */
+    public final
+    void set(final T value) {
+        // only dispatch if there wasn't already a value waiting to be applied
+        if (pending.getAndSet(value) == NONE) {
+            try {
+                dispatch(applyPending);
+            } catch (RuntimeException e) {
+                // it was not dispatched (the dispatch queue is full), so the next value has to be dispatched again
+                pending.set(NONE);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Applies the value right away. A value that is still waiting to be applied is older, so it is dropped. This must be called on the
+     * dispatch thread.
+     */
+    public final
+    void setNow(final T value) {
+        pending.set(NONE);
+        apply(value);
+    }
+
+    /**
+     * Runs the runnable on the dispatch thread
+     */
+    protected abstract
+    void dispatch(Runnable runnable);
+
+    /**
+     * Called on the dispatch thread with the newest value
+     */
+    protected abstract
+    void apply(T value);
+}
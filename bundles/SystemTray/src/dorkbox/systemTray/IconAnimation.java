@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+/**
+ * Plays a sequence of tray icons (for example, a progress spinner). The frames are loaded once (when the animation is first started),
+ * and are then shown on the dispatch thread without loading/decoding the icons again.
+ * <p>
+ * Which frame is shown depends on how long the animation has been running, so if the dispatch thread falls behind, frames are skipped
+ * (they are not queued up).
+ * <p>
+ * Only one animation runs at a time. Starting an animation stops the one that was running, and setting the tray icon stops it as well.
+ *
+ * @see SystemTray#createIconAnimation(int, String...)
+ */
+public final
+class IconAnimation {
+    private final SystemTray systemTray;
+    private final String[] iconPaths;
+    private final long frameInterval;
+    private final int timerInterval;
+
+    // only accessed on the dispatch thread
+    private Object[] frames = null;
+    private Runnable cancelTimer = null;
+    private boolean isDisposed = false;
+    private long startTime;
+    private long lastFrame;
+    private int shownIndex;
+
+    private volatile boolean isRunning = false;
+    private volatile long shownFrames = 0L;
+    private volatile long skippedFrames = 0L;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public
+        void run() {
+            if (!isRunning) {
+                return;
+            }
+
+            // the frame that should be shown now
+            final long frame = (System.nanoTime() - startTime) / frameInterval;
+            if (frame == lastFrame) {
+                return;
+            }
+
+            if (frame > lastFrame + 1) {
+                skippedFrames += frame - lastFrame - 1;
+            }
+            lastFrame = frame;
+
+            final int index = (int) (frame % frames.length);
+            if (index != shownIndex) {
+                shownIndex = index;
+                systemTray.showIconFrame(frames[index]);
+            }
+            shownFrames++;
+        }
+    };
+
+    IconAnimation(final SystemTray systemTray, final int fps, final String[] iconPaths) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("The frames per second must be greater than 0");
+        }
+        if (iconPaths.length == 0) {
+            throw new IllegalArgumentException("An animation must have at least one frame");
+        }
+
+        this.systemTray = systemTray;
+        this.iconPaths = iconPaths;
+        this.frameInterval = 1000000000L / fps;
+        this.timerInterval = Math.max(1, 1000 / fps);
+
+        // the icons must not be removed from the icon cache while the animation can use them
+        for (String iconPath : iconPaths) {
+            ImageUtil.retainIcon(iconPath);
+        }
+    }
+
+    /**
+     * Starts (or restarts) the animation from the first frame. The frames are loaded the first time this is called.
+     */
+    public
+    void start() {
+        systemTray.dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                if (isDisposed) {
+                    return;
+                }
+
+                systemTray.setIconAnimation(IconAnimation.this);
+
+                if (frames == null) {
+                    frames = new Object[iconPaths.length];
+                    for (int i = 0; i < iconPaths.length; i++) {
+                        frames[i] = systemTray.loadIconFrame(iconPaths[i]);
+                    }
+                }
+
+                if (cancelTimer != null) {
+                    cancelTimer.run();
+                }
+
+                isRunning = true;
+                startTime = System.nanoTime();
+                lastFrame = 0L;
+                shownIndex = 0;
+                shownFrames = 1L;
+                skippedFrames = 0L;
+
+                systemTray.showIconFrame(frames[0]);
+                cancelTimer = systemTray.startTimer(timerInterval, tick);
+            }
+        });
+    }
+
+    /**
+     * Stops the animation. The frame that was shown last stays as the tray icon.
+     */
+    public
+    void stop() {
+        systemTray.dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                stop_(true);
+            }
+        });
+    }
+
+    /**
+     * Stops the animation and releases the frames. The animation cannot be started again.
+     */
+    public
+    void dispose() {
+        systemTray.dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                if (isDisposed) {
+                    return;
+                }
+
+                stop_(true);
+                isDisposed = true;
+
+                if (frames != null) {
+                    for (Object frame : frames) {
+                        systemTray.releaseIconFrame(frame);
+                    }
+                    frames = null;
+                }
+
+                for (String iconPath : iconPaths) {
+                    ImageUtil.releaseIcon(iconPath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called on the dispatch thread.
+     *
+     * @param keepFrame true to set the frame that was shown last as the tray icon, false if the tray icon is being replaced.
+     */
+    void stop_(final boolean keepFrame) {
+        if (!isRunning) {
+            return;
+        }
+
+        isRunning = false;
+        cancelTimer.run();
+        cancelTimer = null;
+
+        systemTray.clearIconAnimation(this);
+
+        if (keepFrame) {
+            // the tray only knows about the icons set through setIcon
+            systemTray.setIcon_(iconPaths[shownIndex]);
+        }
+    }
+
+    /**
+     * @return true if the animation is playing
+     */
+    public
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * @return how many frames have been shown since the animation was started
+     */
+    public
+    long getShownFrames() {
+        return shownFrames;
+    }
+
+    /**
+     * @return how many frames were skipped (since the animation was started) because the dispatch thread fell behind
+     */
+    public
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+}
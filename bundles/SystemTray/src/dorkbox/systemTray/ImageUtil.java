@@ -16,8 +16,9 @@
 package dorkbox.systemTray;
 
 import dorkbox.util.LocationResolver;
-import dorkbox.util.OS;
+import dorkbox.util.Property;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,91 +26,559 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public
 class ImageUtil {
 
     public static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
 
-    private static MessageDigest digest;
+    @Property
+    /**
+     * The most icons that are kept in the icon cache. When there are more, the least recently used icons are removed from the cache
+     * (and their temp files are deleted). See {@link #CACHE_MAX_EVICTED_ICONS}
+     */
+    public static int CACHE_MAX_ICONS = 256;
+
+    @Property
+    /**
+     * The most bytes (of icons that are in memory) that are kept in the icon cache. When there are more, the least recently used icons
+     * are removed from the cache (and their temp files are deleted).
+     */
+    public static int CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    @Property
+    /**
+     * The most in-memory icons that were removed from the icon cache, which are kept (in memory) in case they are used again by their
+     * path. An icon that is used again is put back in the cache. 0 to not keep them.
+     */
+    public static int CACHE_MAX_EVICTED_ICONS = 16;
+
+    @Property
+    /**
+     * At startup, the icon temp files (SYSTRAY_*) left behind by earlier runs that are older than this many hours are deleted. 0 to
+     * disable.
+     */
+    public static int STALE_FILE_HOURS = 24;
+
+    // each thread has its own, so that hashing doesn't need a lock
+    private static final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected
+        MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // init() already checked that this is available
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static final
+    class CachedIcon {
+        final String filePath;
+
+        // the bytes of an icon that is in memory (it is only written to disk when something needs it as a file). GTK can use them
+        // directly from memory. Null if the icon is a file on disk that we did not create.
+        volatile byte[] bytes;
+
+        // guarded by this
+        boolean isWritten = false;
+
+        // for approximating which icon was used least recently
+        volatile long lastUsed;
+
+        // how many things are showing this icon. An icon that is being shown is not removed from the cache (or deleted from disk)
+        final AtomicInteger references = new AtomicInteger();
+
+        // the names (or URL paths) this icon was looked up with
+        final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+
+        CachedIcon(final String filePath, final byte[] bytes) {
+            this.filePath = filePath;
+            this.bytes = bytes;
+            touch();
+        }
+
+        void touch() {
+            lastUsed = useCounter.incrementAndGet();
+        }
+
+        int size() {
+            final byte[] bytes = this.bytes;
+            return bytes == null ? 0 : bytes.length;
+        }
+    }
+
+    /**
+     * Loads an icon that is not in the cache yet
+     */
+    private interface IconLoader {
+        /**
+         * @return the full path of the icon
+         */
+        String load();
+    }
+
+    // the key is the file path. The file name is a hash of the contents, so identical icons (from different names) are the same icon
+    private static final ConcurrentHashMap<String, CachedIcon> icons = new ConcurrentHashMap<String, CachedIcon>();
+
+    // the key is the name (or URL path, or file path) an icon was looked up with. Concurrent lookups of the same name share one load.
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> resourceToFilePath =
+                    new ConcurrentHashMap<String, CompletableFuture<String>>();
+
+    // guarded by 'evictedIcons'. The bytes of in-memory icons that were removed from the cache (by path), so the icon can be put back
+    // in the cache if it is used again. The least recently removed icons are first
+    private static final Map<String, byte[]> evictedIcons = new LinkedHashMap<String, byte[]>(16, 0.75F, true) {
+        @Override
+        protected
+        boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+            return size() > CACHE_MAX_EVICTED_ICONS;
+        }
+    };
+
+    private static final AtomicLong useCounter = new AtomicLong();
+    private static final AtomicLong cacheBytes = new AtomicLong();
+    private static final Object evictionLock = new Object();
+
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+    private static final AtomicLong cacheEvictions = new AtomicLong();
 
-    private static final Map<String, String> resourceToFilePath = new HashMap<String, String>();
     private static final long runtimeRandom = new SecureRandom().nextLong();
 
-    public static synchronized
+    public static
     void init() throws NoSuchAlgorithmException {
-        ImageUtil.digest = MessageDigest.getInstance("MD5");
+        // make sure that it is available
+        MessageDigest.getInstance("MD5");
+
+        if (STALE_FILE_HOURS > 0) {
+            // this doesn't have to finish before we can continue
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public
+                void run() {
+                    deleteStaleFiles(TimeUnit.HOURS.toMillis(STALE_FILE_HOURS));
+                }
+            }, "SystemTray Stale File Cleanup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     *  appIndicator/gtk require strings (which is the path)
+     *  swing version loads as an image (which can be stream or path, we use path)
+     *
+     *  If the icon is not a file on disk, the returned path does not exist (as a file) until {@link #iconFile(String)} is called for it.
+     *  Only GTK can use the icon without a file, see {@link #iconBytes(String)}
+     *
+     *  @return the path of the icon, which is also the key of the icon in the cache
+     */
+    public static
+    String iconPath(final String fileName) {
+        // if we already have this fileName (or it is the path of an icon we already have), reuse it
+        return getIcon(fileName, new IconLoader() {
+            @Override
+            public
+            String load() {
+                // is file sitting on drive
+                File iconTest = new File(fileName);
+                if (iconTest.isFile() && iconTest.canRead()) {
+                    final String absolutePath = iconTest.getAbsolutePath();
+
+                    return cacheIcon(fileName, absolutePath, null);
+                }
+                else {
+                    // suck it out of a URL/Resource (with debugging if necessary)
+                    final URL systemResource = LocationResolver.getResource(fileName);
+                    return makeImageViaUrl(fileName, systemResource);
+                }
+            }
+        });
+    }
+
+    /**
+     *  appIndicator/gtk require strings (which is the path)
+     *  swing version loads as an image (which can be stream or path, we use path)
+     *
+     *  The returned path does not exist (as a file) until {@link #iconFile(String)} is called for it. Only GTK can use the icon without
+     *  a file, see {@link #iconBytes(String)}
+     *
+     *  @return the path of the icon, which is also the key of the icon in the cache
+     */
+    public static
+    String iconPath(final URL fileResource) {
+        // if we already have this fileName, reuse it
+        return getIcon(fileResource.getPath(), new IconLoader() {
+            @Override
+            public
+            String load() {
+                return makeImageViaUrl(fileResource.getPath(), fileResource);
+            }
+        });
     }
 
+
     /**
      *  appIndicator/gtk require strings (which is the path)
      *  swing version loads as an image (which can be stream or path, we use path)
+     *
+     *  The returned path does not exist (as a file) until {@link #iconFile(String)} is called for it. Only GTK can use the icon without
+     *  a file, see {@link #iconBytes(String)}
+     *
+     *  @return the path of the icon, which is also the key of the icon in the cache
      */
-    public static synchronized
-    String iconPath(String fileName) {
+    public static
+    String iconPath(final String cacheName, final InputStream fileStream) {
         // if we already have this fileName, reuse it
-        final String cachedFile = resourceToFilePath.get(fileName);
-        if (cachedFile != null) {
-            return cachedFile;
+        return getIcon(cacheName, new IconLoader() {
+            @Override
+            public
+            String load() {
+                return makeImageViaStream(cacheName, cacheName, fileStream);
+            }
+        });
+    }
+
+    /**
+     * @param iconPath the path of the icon, from one of the iconPath() methods
+     *
+     * @return the bytes of the icon if it is only in memory, or null if the icon is a file on disk
+     */
+    public static
+    byte[] iconBytes(final String iconPath) {
+        final CachedIcon icon = getCachedIcon(iconPath);
+        if (icon == null) {
+            return null;
         }
 
-        // is file sitting on drive
-        File iconTest = new File(fileName);
-        if (iconTest.isFile() && iconTest.canRead()) {
-            final String absolutePath = iconTest.getAbsolutePath();
+        icon.touch();
+        return icon.bytes;
+    }
 
-            resourceToFilePath.put(fileName, absolutePath);
-            return absolutePath;
+    /**
+     * Makes sure that the icon exists as a file on disk (for things that can only load icons from a file).
+     *
+     * @param iconPath the path of the icon, from one of the iconPath() methods
+     *
+     * @return the full path of the icon on disk
+     */
+    public static
+    String iconFile(final String iconPath) {
+        final CachedIcon icon = getCachedIcon(iconPath);
+        if (icon == null) {
+            if (!new File(iconPath).isFile()) {
+                SystemTray.logger.error("The icon '{}' is not in the icon cache, and there is no file for it", iconPath);
+            }
         }
         else {
-            // suck it out of a URL/Resource (with debugging if necessary)
-            final URL systemResource = LocationResolver.getResource(fileName);
-            final String filePath = makeFileViaUrl(systemResource);
-            resourceToFilePath.put(fileName, filePath);
-            return filePath;
+            icon.touch();
+
+            final byte[] bytes = icon.bytes;
+            if (bytes != null) {
+                synchronized (icon) {
+                    if (!icon.isWritten) {
+                        writeFile(new File(iconPath), bytes);
+                        icon.isWritten = true;
+                    }
+                }
+            }
         }
+
+        return iconPath;
     }
 
     /**
-     *  appIndicator/gtk require strings (which is the path)
-     *  swing version loads as an image (which can be stream or path, we use path)
+     * Marks an icon as being shown, so it is not removed from the icon cache (or deleted from disk) while it is used. Every call must
+     * have a matching {@link #releaseIcon(String)}.
+     *
+     * @param iconPath the path of the icon, from one of the iconPath() methods
      */
-    public static synchronized
-    String iconPath(final URL fileResource) {
-        // if we already have this fileName, reuse it
-        final String cachedFile = resourceToFilePath.get(fileResource.getPath());
-        if (cachedFile != null) {
-            return cachedFile;
+    public static
+    void retainIcon(final String iconPath) {
+        final CachedIcon icon = getCachedIcon(iconPath);
+        if (icon != null) {
+            icon.touch();
+            icon.references.incrementAndGet();
         }
+    }
 
-        final String filePath = makeFileViaUrl(fileResource);
-        resourceToFilePath.put(fileResource.getPath(), filePath);
-        return filePath;
+    /**
+     * Marks an icon as no longer being shown (by one of the things that were showing it).
+     *
+     * @param iconPath the path of the icon, from one of the iconPath() methods
+     */
+    public static
+    void releaseIcon(final String iconPath) {
+        final CachedIcon icon = icons.get(iconPath);
+        if (icon != null) {
+            final AtomicInteger references = icon.references;
+            int count;
+            do {
+                count = references.get();
+            } while (count > 0 && !references.compareAndSet(count, count - 1));
+        }
     }
 
+    /**
+     * @param iconPath the path of the icon, from one of the iconPath() methods
+     *
+     * @return the cached icon, or null if it is not in the cache. A recently removed in-memory icon is put back in the cache.
+     */
+    private static
+    CachedIcon getCachedIcon(final String iconPath) {
+        final CachedIcon icon = icons.get(iconPath);
+        if (icon != null) {
+            return icon;
+        }
+
+        final byte[] bytes;
+        synchronized (evictedIcons) {
+            bytes = evictedIcons.remove(iconPath);
+        }
+        if (bytes == null) {
+            return null;
+        }
+
+        // something still uses an icon that was removed from the cache (its file was deleted), so it is put back
+        final CachedIcon newIcon = new CachedIcon(iconPath, bytes);
+        final CachedIcon existingIcon = icons.putIfAbsent(iconPath, newIcon);
+        if (existingIcon != null) {
+            return existingIcon;
+        }
+
+        cacheBytes.addAndGet(newIcon.size());
+        newIcon.names.add(iconPath);
+        resourceToFilePath.put(iconPath, CompletableFuture.completedFuture(iconPath));
+
+        // this is the most recently used icon, so it is not the one that is removed
+        evictIcons();
+        return newIcon;
+    }
 
     /**
-     *  appIndicator/gtk require strings (which is the path)
-     *  swing version loads as an image (which can be stream or path, we use path)
+     * @return how many times an icon was found in the icon cache
      */
-    public static synchronized
-    String iconPath(final String cacheName, final InputStream fileStream) {
-        // if we already have this fileName, reuse it
-        final String cachedFile = resourceToFilePath.get(cacheName);
-        if (cachedFile != null) {
-            return cachedFile;
+    public static
+    long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return how many times an icon was not found in the icon cache (and had to be loaded)
+     */
+    public static
+    long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return how many icons were removed from the icon cache, because it was full
+     */
+    public static
+    long getCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    /**
+     * Gets the path of the cached icon for this name, or loads it. If another thread is already loading the icon for this name, this
+     * waits for that instead of loading it again.
+     *
+     * @param name the name (or URL path, or file path) of the icon
+     *
+     * @return the full path of the icon
+     */
+    private static
+    String getIcon(final String name, final IconLoader loader) {
+        while (true) {
+            final CompletableFuture<String> future = resourceToFilePath.get(name);
+
+            if (future == null) {
+                final CompletableFuture<String> loading = new CompletableFuture<String>();
+                if (resourceToFilePath.putIfAbsent(name, loading) != null) {
+                    // someone else started loading it first
+                    continue;
+                }
+
+                cacheMisses.incrementAndGet();
+                try {
+                    final String filePath = loader.load();
+                    loading.complete(filePath);
+                    return filePath;
+                } catch (RuntimeException e) {
+                    // the next lookup will try again
+                    resourceToFilePath.remove(name, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                } catch (Error e) {
+                    resourceToFilePath.remove(name, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            final String filePath;
+            try {
+                filePath = future.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+
+            final CachedIcon icon = icons.get(filePath);
+            if (icon != null) {
+                icon.touch();
+                cacheHits.incrementAndGet();
+                return filePath;
+            }
+
+            // the icon was evicted, so it has to be loaded again
+            resourceToFilePath.remove(name, future);
+        }
+    }
+
+    /**
+     * @param name the name (or URL path) the icon was looked up with
+     * @param bytes the bytes of the icon (if it is in memory), or null if it is a file on disk
+     *
+     * @return the path of the cached icon. This is the same String for every name of the icon, which matters for keeping the icon
+     *         while something still has its path.
+     */
+    private static
+    String cacheIcon(final String name, final String filePath, final byte[] bytes) {
+        final CachedIcon newIcon = new CachedIcon(filePath, bytes);
+        final CachedIcon icon = icons.putIfAbsent(filePath, newIcon);
+
+        if (icon == null) {
+            cacheBytes.addAndGet(newIcon.size());
+
+            // the path can also be used to look up the icon
+            newIcon.names.add(filePath);
+            resourceToFilePath.put(filePath, CompletableFuture.completedFuture(filePath));
+            newIcon.names.add(name);
+        }
+        else {
+            // the bytes are the same (the path is a hash of them), so the icon we already have is used instead
+            icon.touch();
+            icon.names.add(name);
         }
 
-        final String filePath = makeFileViaStream(cacheName, fileStream);
-        resourceToFilePath.put(cacheName, filePath);
-        return filePath;
+        evictIcons();
+        return icon == null ? filePath : icon.filePath;
+    }
+
+    /**
+     * Removes the least recently used icons until the cache is within its limits.
+     */
+    private static
+    void evictIcons() {
+        if (icons.size() <= CACHE_MAX_ICONS && cacheBytes.get() <= CACHE_MAX_BYTES) {
+            return;
+        }
+
+        synchronized (evictionLock) {
+            // the most recently used icon is never removed (it is about to be used), and neither are icons that are being shown
+            while ((icons.size() > CACHE_MAX_ICONS || cacheBytes.get() > CACHE_MAX_BYTES) && icons.size() > 1) {
+                CachedIcon oldest = null;
+                CachedIcon newest = null;
+                for (CachedIcon icon : icons.values()) {
+                    if (newest == null || icon.lastUsed > newest.lastUsed) {
+                        newest = icon;
+                    }
+                    if (icon.references.get() == 0 && (oldest == null || icon.lastUsed < oldest.lastUsed)) {
+                        oldest = icon;
+                    }
+                }
+
+                if (oldest == null || oldest == newest) {
+                    // everything else is being shown
+                    break;
+                }
+
+                if (!icons.remove(oldest.filePath, oldest)) {
+                    continue;
+                }
+
+                cacheEvictions.incrementAndGet();
+
+                for (String name : oldest.names) {
+                    final CompletableFuture<String> future = resourceToFilePath.get(name);
+                    if (future != null && future.isDone() && !future.isCompletedExceptionally() &&
+                        oldest.filePath.equals(future.join())) {
+                        resourceToFilePath.remove(name, future);
+                    }
+                }
+
+                synchronized (oldest) {
+                    cacheBytes.addAndGet(-oldest.size());
+
+                    // kept (for a while) in case the icon is used again
+                    final byte[] bytes = oldest.bytes;
+                    if (bytes != null && CACHE_MAX_EVICTED_ICONS > 0) {
+                        synchronized (evictedIcons) {
+                            evictedIcons.put(oldest.filePath, bytes);
+                        }
+                    }
+
+                    // only delete files that we created
+                    if (oldest.isWritten) {
+                        if (!new File(oldest.filePath).delete()) {
+                            SystemTray.logger.debug("Unable to delete icon temp file '{}'", oldest.filePath);
+                        }
+                        oldest.isWritten = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the icon temp files (SYSTRAY_*) that earlier runs left behind
+     */
+    private static
+    void deleteStaleFiles(final long maxAge) {
+        final File[] files = TEMP_DIR.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long oldest = System.currentTimeMillis() - maxAge;
+        int deleted = 0;
+
+        for (File file : files) {
+            if (file.getName().startsWith("SYSTRAY_") && file.isFile()) {
+                // we might have just (re)written this file
+                if (!icons.containsKey(file.getAbsolutePath()) && file.lastModified() < oldest && file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+
+        if (deleted > 0) {
+            SystemTray.logger.debug("Deleted {} stale icon temp files", deleted);
+        }
     }
 
     /**
@@ -119,18 +588,19 @@ class ImageUtil {
      *  swing version loads as an image (which can be stream or path, we use path)
      */
     @Deprecated
-    public static synchronized
+    public static
     String iconPathNoCache(final InputStream fileStream) {
         return makeFileViaStream(Long.toString(System.currentTimeMillis()), fileStream);
     }
 
 
     /**
-     * @param resourceUrl the url to copy to a file on disk
-     * @return the full path of the resource copied to disk, or null if invalid
+     * @param name the name (or URL path) the icon is looked up with
+     * @param resourceUrl the url to load into memory
+     * @return the full path the resource will have on disk
      */
     private static
-    String makeFileViaUrl(final URL resourceUrl) {
+    String makeImageViaUrl(final String name, final URL resourceUrl) {
         if (resourceUrl == null) {
             throw new RuntimeException("resourceUrl is null");
         }
@@ -146,7 +616,23 @@ class ImageUtil {
 
         // suck it out of a URL/Resource (with debugging if necessary)
         String cacheName = resourceUrl.getPath();
-        return makeFileViaStream(cacheName, inStream);
+        return makeImageViaStream(name, cacheName, inStream);
+    }
+
+    /**
+     * @param name the name (or URL path) the icon is looked up with
+     * @param cacheName needs name+extension for the resource
+     * @param resourceStream the resource to load into memory
+     *
+     * @return the full path the resource will have on disk
+     */
+    private static
+    String makeImageViaStream(final String name, final String cacheName, final InputStream resourceStream) {
+        final MessageDigest digest = ImageUtil.digest.get();
+        final byte[] bytes = readImage(cacheName, resourceStream, digest);
+        final String filePath = makeFile(hashName(digest), getExtension(cacheName)).getAbsolutePath();
+
+        return cacheIcon(name, filePath, bytes);
     }
 
     /**
@@ -157,6 +643,23 @@ class ImageUtil {
      */
     private static
     String makeFileViaStream(final String cacheName, final InputStream resourceStream) {
+        final MessageDigest digest = ImageUtil.digest.get();
+        final byte[] bytes = readImage(cacheName, resourceStream, digest);
+        final File newFile = makeFile(hashName(digest), getExtension(cacheName));
+
+        writeFile(newFile, bytes);
+        return newFile.getAbsolutePath();
+    }
+
+    /**
+     * Reads all of the resource into memory, and hashes it while it is read.
+     *
+     * @param cacheName needs name+extension for the resource
+     * @param resourceStream the resource to read (this is closed afterwards)
+     * @param digest this is reset, and then updated with the bytes of the resource
+     */
+    private static
+    byte[] readImage(final String cacheName, final InputStream resourceStream, final MessageDigest digest) {
         if (cacheName == null) {
             throw new RuntimeException("cacheName is null");
         }
@@ -164,50 +667,94 @@ class ImageUtil {
             throw new RuntimeException("resourceStream is null");
         }
 
-        // figure out the fileName
-        byte[] bytes = cacheName.getBytes(OS.UTF_8);
-        File newFile;
+        digest.reset();
 
-        // can be wimpy, only one at a time
-        String hash = hashName(bytes);
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream(2048);
+        try {
+            byte[] buffer = new byte[2048];
+            int read;
+            while ((read = resourceStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+                outStream.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // Send up exception
+            String message = "Unable to read icon '" + cacheName + "'";
+            SystemTray.logger.error(message, e);
+            throw new RuntimeException(message, e);
+        } finally {
+            try {
+                resourceStream.close();
+            } catch (Exception ignored) {
+            }
+        }
+
+        return outStream.toByteArray();
+    }
 
-        String extension = getExtension(cacheName);
-        newFile = new File(TEMP_DIR, "SYSTRAY_" + hash + '.' + extension).getAbsoluteFile();
+    /**
+     * @param hash the hash of the contents of the resource
+     * @param extension the extension of the resource
+     *
+     * @return the file (in the temp location) for the resource
+     */
+    private static
+    File makeFile(final String hash, final String extension) {
+        File newFile = new File(TEMP_DIR, "SYSTRAY_" + hash + '.' + extension).getAbsoluteFile();
         if (SystemTray.isKDE) {
             // KDE is unique per run, so this prevents buildup
             newFile.deleteOnExit();
         }
 
-        // copy out to a temp file, as a hash of the file name
+        return newFile;
+    }
+
+    /**
+     * Writes to a temp file first, which is then renamed. Something that is reading the file (GTK, for example) never sees it partially
+     * written.
+     */
+    private static
+    void writeFile(final File file, final byte[] bytes) {
+        // the file name is a hash of the contents, so if it's there, it's the same (a previous run might have written it)
+        if (file.isFile() && file.length() == bytes.length) {
+            // so that it's not cleaned up as a stale file
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return;
+        }
 
+        File tempFile = null;
         OutputStream outStream = null;
         try {
-            outStream = new FileOutputStream(newFile);
+            tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            outStream = new FileOutputStream(tempFile);
+            outStream.write(bytes);
+            outStream.close();
+            outStream = null;
 
-            byte[] buffer = new byte[2048];
-            int read;
-            while ((read = resourceStream.read(buffer)) > 0) {
-                outStream.write(buffer, 0, read);
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
             }
+            tempFile = null;
         } catch (IOException e) {
             // Send up exception
-            String message = "Unable to copy icon '" + cacheName + "' to temporary location: '" + newFile.getAbsolutePath() + "'";
+            String message = "Unable to copy icon to temporary location: '" + file.getAbsolutePath() + "'";
             SystemTray.logger.error(message, e);
             throw new RuntimeException(message, e);
         } finally {
-            try {
-                resourceStream.close();
-            } catch (Exception ignored) {
-            }
             try {
                 if (outStream != null) {
                     outStream.close();
                 }
             } catch (Exception ignored) {
             }
+            if (tempFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
         }
-
-        return newFile.getAbsolutePath();
     }
 
     public static
@@ -221,12 +768,11 @@ class ImageUtil {
         return extension;
     }
 
-    // must be called from synchronized block
+    /**
+     * Finishes the hash of the contents of a resource
+     */
     private static
-    String hashName(byte[] nameChars) {
-        digest.reset();
-        digest.update(nameChars);
-
+    String hashName(final MessageDigest digest) {
         // For KDE4, it must also be unique across runs
         if (SystemTray.isKDE) {
             byte[] longBytes = new byte[8];
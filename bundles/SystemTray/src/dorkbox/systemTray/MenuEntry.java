@@ -24,6 +24,11 @@ import java.net.URL;
  */
 public
 interface MenuEntry {
+    /**
+     * @return the id of this menu entry, which is unique and does not change for the life of the menu entry
+     */
+    int getId();
+
     /**
      * @return the text label that the menu entry has assigned
      */
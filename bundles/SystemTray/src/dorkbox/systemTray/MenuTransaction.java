@@ -0,0 +1,294 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of menu changes that are queued up, and then applied together in a single dispatch onto the dispatch thread.
+ * <p>
+ * Images are resolved when they are queued (on the calling thread), so that the dispatch thread does not have to wait on them.
+ *
+ * @see SystemTray#batch(java.util.function.Consumer)
+ * @see SystemTray#whenReady(java.util.function.Consumer)
+ */
+public
+class MenuTransaction {
+    private interface Operation {
+        /**
+         * Called on the dispatch thread.
+         *
+         * @param missing the labels of menu entries that could not be found
+         */
+        void apply(SystemTray systemTray, List<String> missing);
+    }
+
+
+    private final List<Operation> operations = new ArrayList<Operation>();
+
+    MenuTransaction() {
+    }
+
+    boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Must be called on the dispatch thread
+     */
+    void apply(final SystemTray systemTray, final List<String> missing) {
+        for (int i = 0; i < operations.size(); i++) {
+            operations.get(i).apply(systemTray, missing);
+        }
+    }
+
+    /**
+     * Adds a menu entry to the tray icon with text (no image)
+     *
+     * @param menuText string of the text you want to appear
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public
+    void addMenuEntry(final String menuText, final SystemTrayMenuAction callback) {
+        addMenuEntry_(menuText, null, callback);
+    }
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param imagePath the image (full path required) to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public
+    void addMenuEntry(final String menuText, final String imagePath, final SystemTrayMenuAction callback) {
+        addMenuEntry_(menuText, imagePath == null ? null : ImageUtil.iconPath(imagePath), callback);
+    }
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param imageUrl the URL of the image to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public
+    void addMenuEntry(final String menuText, final URL imageUrl, final SystemTrayMenuAction callback) {
+        addMenuEntry_(menuText, imageUrl == null ? null : ImageUtil.iconPath(imageUrl), callback);
+    }
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param cacheName the name to use for lookup in the cache for the imageStream
+     * @param imageStream the InputStream of the image to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public
+    void addMenuEntry(final String menuText, final String cacheName, final InputStream imageStream,
+                      final SystemTrayMenuAction callback) {
+        addMenuEntry_(menuText, imageStream == null ? null : ImageUtil.iconPath(cacheName, imageStream), callback);
+    }
+
+    private
+    void addMenuEntry_(final String menuText, final String imagePath, final SystemTrayMenuAction callback) {
+        if (menuText == null) {
+            throw new NullPointerException("Menu text cannot be null");
+        }
+
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                systemTray.addMenuEntry_(menuText, imagePath, callback);
+            }
+        });
+    }
+
+    /**
+     * Updates (or changes) the menu entry's text.
+     *
+     * @param origMenuText the original menu text
+     * @param newMenuText the new menu text (this will replace the original menu text)
+     */
+    public
+    void updateMenuEntry_Text(final String origMenuText, final String newMenuText) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                MenuEntry menuEntry = systemTray.getMenuEntry_(origMenuText, missing);
+                if (menuEntry != null) {
+                    // applied now, so that it is part of this transaction
+                    systemTray.setMenuEntryText_(menuEntry, newMenuText);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates (or changes) the menu entry's image.
+     *
+     * @param origMenuText the original menu text
+     * @param imagePath the new path for the image to use or null to delete the image
+     */
+    public
+    void updateMenuEntry_Image(final String origMenuText, final String imagePath) {
+        updateMenuEntry_Image_(origMenuText, imagePath == null ? null : ImageUtil.iconPath(imagePath));
+    }
+
+    /**
+     * Updates (or changes) the menu entry's image.
+     *
+     * @param origMenuText the original menu text
+     * @param imageUrl the new URL for the image to use or null to delete the image
+     */
+    public
+    void updateMenuEntry_Image(final String origMenuText, final URL imageUrl) {
+        updateMenuEntry_Image_(origMenuText, imageUrl == null ? null : ImageUtil.iconPath(imageUrl));
+    }
+
+    /**
+     * Updates (or changes) the menu entry's image.
+     *
+     * @param origMenuText the original menu text
+     * @param cacheName the name to use for lookup in the cache for the imageStream
+     * @param imageStream the InputStream of the image to use or null to delete the image
+     */
+    public
+    void updateMenuEntry_Image(final String origMenuText, final String cacheName, final InputStream imageStream) {
+        updateMenuEntry_Image_(origMenuText, imageStream == null ? null : ImageUtil.iconPath(cacheName, imageStream));
+    }
+
+    private
+    void updateMenuEntry_Image_(final String origMenuText, final String imagePath) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                MenuEntry menuEntry = systemTray.getMenuEntry_(origMenuText, missing);
+                if (menuEntry != null) {
+                    menuEntry.setImage(imagePath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates (or changes) the menu entry's callback.
+     *
+     * @param origMenuText the original menu text
+     * @param newCallback the new callback (this will replace the original callback)
+     */
+    public
+    void updateMenuEntry_Callback(final String origMenuText, final SystemTrayMenuAction newCallback) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                MenuEntry menuEntry = systemTray.getMenuEntry_(origMenuText, missing);
+                if (menuEntry != null) {
+                    menuEntry.setCallback(newCallback);
+                }
+            }
+        });
+    }
+
+    /**
+     * This removes a menu entry (via the text label) from the dropdown menu.
+     *
+     * @param menuText This is the label for the menu entry to remove
+     */
+    public
+    void removeMenuEntry(final String menuText) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                synchronized (systemTray.menuEntries) {
+                    MenuEntry menuEntry = systemTray.getMenuEntry_(menuText, missing);
+                    if (menuEntry != null) {
+                        systemTray.unlinkMenuEntry(menuEntry);
+                        menuEntry.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Changes the tray icon used.
+     *
+     * @param imagePath the path of the icon to use
+     */
+    public
+    void setIcon(final String imagePath) {
+        setIcon_(ImageUtil.iconPath(imagePath));
+    }
+
+    /**
+     * Changes the tray icon used.
+     *
+     * @param imageUrl the URL of the icon to use
+     */
+    public
+    void setIcon(final URL imageUrl) {
+        setIcon_(ImageUtil.iconPath(imageUrl));
+    }
+
+    /**
+     * Changes the tray icon used.
+     *
+     * @param cacheName the name to use for lookup in the cache for the iconStream
+     * @param imageStream the InputStream of the icon to use
+     */
+    public
+    void setIcon(final String cacheName, final InputStream imageStream) {
+        setIcon_(ImageUtil.iconPath(cacheName, imageStream));
+    }
+
+    private
+    void setIcon_(final String iconPath) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                systemTray.stopIconAnimation_();
+                systemTray.setIcon_(iconPath);
+            }
+        });
+    }
+
+    /**
+     * Sets a 'status' string at the first position in the popup menu. This 'status' string appears as a disabled menu entry.
+     *
+     * @param statusText the text you want displayed, null if you want to remove the 'status' string
+     */
+    public
+    void setStatus(final String statusText) {
+        operations.add(new Operation() {
+            @Override
+            public
+            void apply(final SystemTray systemTray, final List<String> missing) {
+                systemTray.setStatus(statusText);
+            }
+        });
+    }
+}
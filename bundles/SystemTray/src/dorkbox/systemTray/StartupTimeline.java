@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each part of starting the system tray took. Parts that did not run (for example, the gnome-shell check on KDE) are not in the
+ * timeline. If a part runs more than once, the times are added together.
+ * <p>
+ * Some parts run at the same time as others (for example, the process scan), so the durations do not always add up to the total.
+ *
+ * @see SystemTray#getStartupTimeline()
+ */
+public final
+class StartupTimeline {
+    public static final String HEADLESS_CHECK = "headless check";
+    public static final String TOOLKIT_CHECK = "JavaFX/SWT check";
+    public static final String DETECTION_CACHE = "detection cache";
+    public static final String DESKTOP_DETECTION = "desktop detection";
+    public static final String PROCESS_SCAN = "process scan";
+    public static final String SHELL_PROCESS = "shell process";
+    public static final String GTK_LOADING = "GTK loading";
+    public static final String APP_INDICATOR_LOADING = "AppIndicator loading";
+    public static final String IMAGE_INIT = "image init";
+    public static final String GTK_START = "GTK start";
+    public static final String TRAY_CREATION = "tray creation";
+    /** From when startup began, until the tray icon was first visible */
+    public static final String FIRST_ICON_VISIBLE = "first icon visible";
+
+    private final Map<String, Long> durations = new LinkedHashMap<String, Long>();
+    private long startTime = 0L;
+
+    StartupTimeline() {
+    }
+
+    /**
+     * Called when startup begins
+     *
+     * @return the current time (from {@link System#nanoTime()}), which is when the first part starts
+     */
+    synchronized
+    long begin() {
+        durations.clear();
+        startTime = System.nanoTime();
+        return startTime;
+    }
+
+    /**
+     * Records that a part of the startup has finished.
+     *
+     * @param phase the name of the part
+     * @param phaseStart when the part started (from {@link System#nanoTime()})
+     *
+     * @return the current time (from {@link System#nanoTime()}), which is when the next part starts
+     */
+    public synchronized
+    long record(final String phase, final long phaseStart) {
+        final long now = System.nanoTime();
+
+        final Long duration = durations.get(phase);
+        if (duration == null) {
+            durations.put(phase, now - phaseStart);
+        }
+        else {
+            durations.put(phase, duration + (now - phaseStart));
+        }
+
+        return now;
+    }
+
+    /**
+     * Records the time from when the startup began, but only the first time this is called for that part.
+     *
+     * @param phase the name of the part
+     *
+     * @return true if this was the first time
+     */
+    public synchronized
+    boolean recordOnce(final String phase) {
+        if (startTime == 0L || durations.containsKey(phase)) {
+            return false;
+        }
+
+        durations.put(phase, System.nanoTime() - startTime);
+        return true;
+    }
+
+    /**
+     * @return how long that part of the startup took, or -1 if it was not recorded
+     */
+    public synchronized
+    long getDuration(final String phase, final TimeUnit unit) {
+        final Long duration = durations.get(phase);
+        if (duration == null) {
+            return -1L;
+        }
+        return unit.convert(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return how long each part of the startup took (in milliseconds), in the order they finished
+     */
+    public synchronized
+    Map<String, Long> getDurations() {
+        final Map<String, Long> durations = new LinkedHashMap<String, Long>(this.durations.size());
+        for (Map.Entry<String, Long> entry : this.durations.entrySet()) {
+            durations.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return durations;
+    }
+
+    /**
+     * @return a single line with how long each part of the startup took
+     */
+    @Override
+    public synchronized
+    String toString() {
+        final StringBuilder builder = new StringBuilder(256);
+
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(entry.getKey())
+                   .append('=')
+                   .append(TimeUnit.NANOSECONDS.toMillis(entry.getValue()))
+                   .append("ms");
+        }
+
+        return builder.toString();
+    }
+}
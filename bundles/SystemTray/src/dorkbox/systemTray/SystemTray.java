@@ -17,30 +17,47 @@ package dorkbox.systemTray;
 
 import java.awt.GraphicsEnvironment;
 import java.awt.HeadlessException;
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileReader;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.concurrent.CountDownLatch;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dorkbox.systemTray.headless.HeadlessSystemTray;
 import dorkbox.systemTray.linux.AppIndicatorTray;
 import dorkbox.systemTray.linux.GnomeShellExtension;
 import dorkbox.systemTray.linux.GtkSystemTray;
+import dorkbox.systemTray.linux.ProcessScanner;
+import dorkbox.systemTray.linux.TrayDetectionCache;
 import dorkbox.systemTray.linux.jna.AppIndicator;
 import dorkbox.systemTray.linux.jna.Gtk;
+import dorkbox.systemTray.linux.jna.LibraryProbe;
 import dorkbox.systemTray.swing.SwingSystemTray;
+import dorkbox.util.NamedThreadFactory;
 import dorkbox.util.OS;
 import dorkbox.util.Property;
 import dorkbox.util.process.ShellProcessBuilder;
@@ -56,10 +73,11 @@ class SystemTray {
 
     public static final int LINUX_GTK = 1;
     public static final int LINUX_APP_INDICATOR = 2;
+    public static final int LINUX_HEADLESS = 3;
 
     @Property
-    /** How long to wait when updating menu entries before the request times-out */
-    public static final int TIMEOUT = 2;
+    /** How long (in seconds) to wait when updating menu entries before the request times-out. This is read for every update. */
+    public static int TIMEOUT = 2;
 
     @Property
     /** Size of the tray, so that the icon can properly scale based on OS. (if it's not exact) */
@@ -70,9 +88,16 @@ class SystemTray {
     public static boolean FORCE_GTK2 = false;
 
     @Property
-    /** If != 0, forces the system tray in linux to be GTK (1) or AppIndicator (2). This is an advanced feature. */
+    /** If != 0, forces the system tray in linux to be GTK (1), AppIndicator (2) or headless (3). This is an advanced feature. */
     public static int FORCE_LINUX_TYPE = 0;
 
+    @Property
+    /**
+     * Forces the system tray to be headless (on any OS). Nothing is shown, but the menu, the dispatch thread, the icons and the
+     * callbacks all work. This is useful for load testing, and for testing on machines without a desktop.
+     */
+    public static boolean FORCE_HEADLESS = false;
+
     @Property
     /**
      * Forces the system to enter into JavaFX/SWT compatibility mode, where it will use GTK2 AND will not start/stop the GTK main loop.
@@ -87,6 +112,20 @@ class SystemTray {
      */
     public static boolean ENABLE_SHUTDOWN_HOOK = true;
 
+    @Property
+    /**
+     * On linux, remembers the detected system-tray type (and GTK/AppIndicator libraries) in the user's cache directory, so the next
+     * start can skip detection. It is detected again whenever the desktop environment (or the libraries) change.
+     */
+    public static boolean ENABLE_DETECTION_CACHE = true;
+
+    @Property
+    /**
+     * Logs (at INFO) how long each part of starting the system tray took, and how long until the tray icon was first visible.
+     * See {@link #getStartupTimeline()}.
+     */
+    public static boolean LOG_STARTUP_TIMELINE = false;
+
     @Property
     /**
      * This property is provided for debugging any errors in the logic used to determine the system-tray type.
@@ -94,19 +133,45 @@ class SystemTray {
     public static boolean DEBUG = false;
 
     private static volatile SystemTray systemTray = null;
+
+    // guards the asynchronous startup
+    private static final Object startupLock = new Object();
+    private static CompletableFuture<SystemTray> startup = null;
+    // menu changes made before the tray is ready, which are applied (in order) once it is. Null once the tray is ready.
+    private static List<MenuTransaction> pendingTransactions = new ArrayList<MenuTransaction>();
     static boolean isKDE = false;
 
-    private static void init() {
+    private static final StartupTimeline startupTimeline = new StartupTimeline();
+
+    // shared by all of the animations (the ticks are tiny, they only dispatch the frame). The thread is only started when it is used.
+    // resolves the images of the asynchronous menu entry updates, in the order they were made
+    private static final ExecutorService imageResolver = Executors.newSingleThreadExecutor(
+                    new NamedThreadFactory("SystemTray Image Resolver", true));
+
+    private static final ScheduledExecutorService animationTimer = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("SystemTray Timer", true));
+
+    private static synchronized void init() {
         if (systemTray != null) {
             return;
         }
 
+        long phaseStart = startupTimeline.begin();
+
+        Class<? extends SystemTray> trayType = null;
+
+        if (FORCE_HEADLESS || (OS.isLinux() && FORCE_LINUX_TYPE == LINUX_HEADLESS)) {
+            trayType = HeadlessSystemTray.class;
+        }
         // no tray in a headless environment
-        if (GraphicsEnvironment.isHeadless()) {
+        else if (GraphicsEnvironment.isHeadless()) {
             throw new HeadlessException();
         }
+        phaseStart = startupTimeline.record(StartupTimeline.HEADLESS_CHECK, phaseStart);
 
-        Class<? extends SystemTray> trayType = null;
+        boolean useDetectionCache = false;
+        // true if the gnome-shell extension shows the tray icon
+        boolean usesGnomeShellExtension = false;
 
         boolean isJavaFxLoaded = false;
         boolean isSwtLoaded = false;
@@ -142,6 +207,7 @@ class SystemTray {
                 throw new RuntimeException("SWT configured to use GTK3 and is incompatible with the SystemTray.");
             }
         }
+        phaseStart = startupTimeline.record(StartupTimeline.TOOLKIT_CHECK, phaseStart);
 
 
         // Note: AppIndicators DO NOT support tooltips. We could try to create one, by creating a GTK widget and attaching it on
@@ -153,21 +219,38 @@ class SystemTray {
             TRAY_SIZE -= 4;
         }
 
-        if (OS.isLinux()) {
+        if (trayType == null && OS.isLinux()) {
             // see: https://askubuntu.com/questions/72549/how-to-determine-which-window-manager-is-running
 
             // For funsies, SyncThing did a LOT of work on compatibility (unfortunate for us) in python.
             // https://github.com/syncthing/syncthing-gtk/blob/b7a3bc00e3bb6d62365ae62b5395370f3dcc7f55/syncthing_gtk/statusicon.py
 
-            // load up our libraries
+            // find out which libraries are installed, while we are doing everything else
+            LibraryProbe.start();
+
+            // what was detected last time can be used again, if nothing has changed since then. This must be before loading libraries
+            useDetectionCache = ENABLE_DETECTION_CACHE && FORCE_LINUX_TYPE == 0;
+            if (useDetectionCache) {
+                TrayDetectionCache.load();
+                phaseStart = startupTimeline.record(StartupTimeline.DETECTION_CACHE, phaseStart);
+            }
+
+            // looking for the indicator-application-service takes a while, so it runs while the libraries are loading
+            FutureTask<Boolean> indicatorScan = null;
+            if (FORCE_LINUX_TYPE == 0 && (!useDetectionCache || TrayDetectionCache.getTrayType() == null)) {
+                indicatorScan = ProcessScanner.start("indicator-app");
+            }
+
+            // load up GTK. AppIndicator is only loaded if it is used (and it must always be loaded AFTER GTK)
             // NOTE:
             //  ALSO WHAT VERSION OF GTK to use? appindiactor1 -> GTk2, appindicator3 -> GTK3.
             // appindicator3 doesn't support menu icons via GTK2!!
-            if (Gtk.isGtk2 || AppIndicator.isVersion3) {
+            if (Gtk.isGtk2) {
                 if (DEBUG) {
-                    logger.trace("Loading libraries");
+                    logger.trace("Loaded GTK2");
                 }
             }
+            phaseStart = startupTimeline.record(StartupTimeline.GTK_LOADING, phaseStart);
 
             if (SystemTray.FORCE_LINUX_TYPE == SystemTray.LINUX_GTK) {
                 try {
@@ -189,6 +272,25 @@ class SystemTray {
             }
 
 
+            if (trayType == null && useDetectionCache) {
+                trayType = TrayDetectionCache.getTrayType();
+                if (trayType != null) {
+                    isKDE = TrayDetectionCache.isKDE();
+                    if (DEBUG) {
+                        logger.debug("Using the previously detected tray type: {}", trayType.getSimpleName());
+                    }
+
+                    if (TrayDetectionCache.usesGnomeShellExtension()) {
+                        // the extension might have been disabled or changed since then, so it is always checked (and installed again)
+                        usesGnomeShellExtension = installGnomeShellExtension();
+                        if (!usesGnomeShellExtension) {
+                            trayType = null;
+                        }
+                        phaseStart = startupTimeline.record(StartupTimeline.SHELL_PROCESS, phaseStart);
+                    }
+                }
+            }
+
             // quick check, because we know that unity uses app-indicator. Maybe REALLY old versions do not. We support 14.04 LTE at least
             if (trayType == null) {
                 String XDG = System.getenv("XDG_CURRENT_DESKTOP");
@@ -274,79 +376,29 @@ class SystemTray {
 
                 // is likely 'gnome', but it can also be unknown (or something completely different), install extension and go from there
                 if (trayType == null) {
-                    // if the "topicons" extension is installed, don't install us (because it will override what we do, where ours
-                    // is more specialized - so it only modified our tray icon (instead of ALL tray icons)
-
-                    try {
-                        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(8196);
-                        PrintStream outputStream = new PrintStream(byteArrayOutputStream);
+                    phaseStart = startupTimeline.record(StartupTimeline.DESKTOP_DETECTION, phaseStart);
 
-                        // gnome-shell --version
-                        final ShellProcessBuilder shellVersion = new ShellProcessBuilder(outputStream);
-                        shellVersion.setExecutable("gnome-shell");
-                        shellVersion.addArgument("--version");
-                        shellVersion.start();
-
-                        String output = ShellProcessBuilder.getOutput(byteArrayOutputStream);
-
-                        if (!output.isEmpty()) {
-                            GnomeShellExtension.install(logger, output);
-                            trayType = GtkSystemTray.class;
-                        }
-                    } catch (Throwable e) {
-                        if (DEBUG) {
-                            e.printStackTrace();
-                        }
-                        trayType = null;
+                    usesGnomeShellExtension = installGnomeShellExtension();
+                    if (usesGnomeShellExtension) {
+                        trayType = GtkSystemTray.class;
                     }
+                    phaseStart = startupTimeline.record(StartupTimeline.SHELL_PROCESS, phaseStart);
                 }
             }
 
             // Try to autodetect if we can use app indicators (or if we need to fallback to GTK indicators)
-            if (trayType == null) {
-                BufferedReader bin = null;
+            if (trayType == null && indicatorScan != null) {
                 try {
                     // the ONLY guaranteed way to determine if indicator-application-service is running (and thus, using app-indicator),
-                    // is to look through all /proc/<pid>/status, and first line should be Name:\tindicator-appli
-                    File proc = new File("/proc");
-                    File[] listFiles = proc.listFiles();
-                    if (listFiles != null) {
-                        for (File procs : listFiles) {
-                            String name = procs.getName();
-
-                            if (!Character.isDigit(name.charAt(0))) {
-                                continue;
-                            }
-
-                            File status = new File(procs, "status");
-                            if (!status.canRead()) {
-                                continue;
-                            }
-
-                            try {
-                                bin = new BufferedReader(new FileReader(status));
-                                String readLine = bin.readLine();
-
-                                if (readLine != null && readLine.contains("indicator-app")) {
-                                    // make sure we can also load the library (it might be the wrong version)
-                                    try {
-                                        trayType = AppIndicatorTray.class;
-                                    } catch (Throwable e) {
-                                        logger.error("AppIndicator support detected, but unable to load the library. Falling back to GTK");
-                                        if (DEBUG) {
-                                            e.printStackTrace();
-                                        }
-                                    }
-                                    break;
-                                }
-                            } finally {
-                                if (bin != null) {
-                                    try {
-                                        bin.close();
-                                    } catch (Exception ignored) {
-                                    }
-                                    bin = null;
-                                }
+                    // is to look through all of the running processes
+                    if (indicatorScan.get()) {
+                        // make sure we can also load the library (it might be the wrong version)
+                        try {
+                            trayType = AppIndicatorTray.class;
+                        } catch (Throwable e) {
+                            logger.error("AppIndicator support detected, but unable to load the library. Falling back to GTK");
+                            if (DEBUG) {
+                                e.printStackTrace();
                             }
                         }
                     }
@@ -354,22 +406,34 @@ class SystemTray {
                     if (DEBUG) {
                         e.printStackTrace();
                     }
-                } finally {
-                    if (bin != null) {
-                        try {
-                            bin.close();
-                        } catch (Throwable e) {
-                            if (DEBUG) {
-                                e.printStackTrace();
-                            }
+                }
+            }
+
+
+            phaseStart = startupTimeline.record(StartupTimeline.DESKTOP_DETECTION, phaseStart);
+
+            if (trayType == AppIndicatorTray.class) {
+                try {
+                    if (AppIndicator.isVersion3) {
+                        if (DEBUG) {
+                            logger.trace("Loaded AppIndicator3");
                         }
                     }
+                } catch (Throwable e) {
+                    logger.error("AppIndicator support detected, but unable to load the library. Falling back to GTK");
+                    if (DEBUG) {
+                        e.printStackTrace();
+                    }
+                    useDetectionCache = false;
+                    trayType = GtkSystemTray.class;
                 }
+                phaseStart = startupTimeline.record(StartupTimeline.APP_INDICATOR_LOADING, phaseStart);
             }
 
-
             // fallback...
             if (trayType == null) {
+                // don't remember a guess
+                useDetectionCache = false;
                 trayType = GtkSystemTray.class;
                 logger.error("Unable to load the system tray native library. Please write an issue and include your OS type and " +
                              "configuration");
@@ -399,6 +463,7 @@ class SystemTray {
 
             try {
                 ImageUtil.init();
+                phaseStart = startupTimeline.record(StartupTimeline.IMAGE_INIT, phaseStart);
 
                 if (OS.isLinux() &&
                     trayType == AppIndicatorTray.class &&
@@ -421,6 +486,11 @@ class SystemTray {
                 }
 
                 systemTray_ = (SystemTray) trayType.getConstructors()[0].newInstance();
+                startupTimeline.record(StartupTimeline.TRAY_CREATION, phaseStart);
+
+                if (useDetectionCache) {
+                    TrayDetectionCache.save(trayType, isKDE, usesGnomeShellExtension);
+                }
 
                 logger.info("Successfully Loaded: {}", trayType.getSimpleName());
             } catch (NoSuchAlgorithmException e) {
@@ -431,6 +501,10 @@ class SystemTray {
 
             systemTray = systemTray_;
 
+            if (LOG_STARTUP_TIMELINE) {
+                logger.info("Startup timeline: {}", startupTimeline);
+            }
+
 
             // These install a shutdown hook in JavaFX/SWT, so that when the main window is closed -- the system tray is ALSO closed.
             if (COMPATIBILITY_MODE && ENABLE_SHUTDOWN_HOOK) {
@@ -518,8 +592,185 @@ class SystemTray {
         return systemTray;
     }
 
+    /**
+     * @return how long each part of starting the system tray took
+     */
+    public static
+    StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
+
+    /**
+     * Must be called by implementations every time the tray icon is shown, so that the first time can be recorded in the startup
+     * timeline.
+     */
+    protected final
+    void iconShown() {
+        if (startupTimeline.recordOnce(StartupTimeline.FIRST_ICON_VISIBLE) && LOG_STARTUP_TIMELINE) {
+            logger.info("Tray icon visible after {}ms",
+                        startupTimeline.getDuration(StartupTimeline.FIRST_ICON_VISIBLE, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Starts the system tray (on a different thread), so that the calling thread does not have to wait for the system tray to be
+     * detected, loaded and started. This can take a while, for example when the gnome-shell extension has to be installed.
+     * <p>
+     * Menu changes can be made before the tray is ready via {@link #whenReady(Consumer)}.
+     *
+     * @return a future that is completed with the same instance as {@link #getSystemTray()} (which can be null), once the system tray is
+     * ready and the menu changes made before then have been applied. Menu changes that fail are logged, they do not fail the future.
+     */
+    public static
+    CompletableFuture<SystemTray> getSystemTrayAsync() {
+        synchronized (startupLock) {
+            if (startup != null) {
+                return startup;
+            }
+
+            final CompletableFuture<SystemTray> future = new CompletableFuture<SystemTray>();
+            startup = future;
+
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public
+                void run() {
+                    final SystemTray systemTray;
+                    try {
+                        systemTray = getSystemTray();
+                    } catch (Throwable e) {
+                        synchronized (startupLock) {
+                            pendingTransactions = null;
+                        }
+                        future.completeExceptionally(e);
+                        return;
+                    }
+
+                    // a menu change that fails (or times out) is logged, it does not fail the startup
+                    applyPendingTransactions(systemTray);
+                    future.complete(systemTray);
+                }
+            }, "SystemTray Startup");
+            thread.setDaemon(true);
+            thread.start();
+
+            return future;
+        }
+    }
+
+    /**
+     * Queues up menu changes (and icon changes) which are applied once the system tray is ready, in the order that they were made. If
+     * the system tray is already ready, they are applied right away. This starts the system tray (see {@link #getSystemTrayAsync()}) if
+     * it was not already started.
+     * <p>
+     * Images are resolved right away, on the calling thread.
+     *
+     * @param transaction this is given the transaction to queue the changes on
+     *
+     * @return the same future as {@link #getSystemTrayAsync()}
+     */
+    public static
+    CompletableFuture<SystemTray> whenReady(final Consumer<MenuTransaction> transaction) {
+        final CompletableFuture<SystemTray> future = getSystemTrayAsync();
+
+        final MenuTransaction menuTransaction = new MenuTransaction();
+        transaction.accept(menuTransaction);
+
+        if (menuTransaction.isEmpty()) {
+            return future;
+        }
+
+        synchronized (startupLock) {
+            if (pendingTransactions != null) {
+                pendingTransactions.add(menuTransaction);
+                return future;
+            }
+        }
+
+        // the tray is ready (or there is no tray)
+        if (systemTray != null) {
+            systemTray.applyAsync(menuTransaction);
+        }
+        return future;
+    }
+
+    /**
+     * Installs our gnome-shell extension (or updates it, if it is not the current version), if gnome-shell is running.
+     *
+     * @return true if gnome-shell is running (so the extension is used), false otherwise
+     */
+    private static
+    boolean installGnomeShellExtension() {
+        // if the "topicons" extension is installed, don't install us (because it will override what we do, where ours
+        // is more specialized - so it only modified our tray icon (instead of ALL tray icons)
+
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(8196);
+            PrintStream outputStream = new PrintStream(byteArrayOutputStream);
+
+            // gnome-shell --version
+            final ShellProcessBuilder shellVersion = new ShellProcessBuilder(outputStream);
+            shellVersion.setExecutable("gnome-shell");
+            shellVersion.addArgument("--version");
+            shellVersion.start();
+
+            String output = ShellProcessBuilder.getOutput(byteArrayOutputStream);
+
+            if (!output.isEmpty()) {
+                GnomeShellExtension.install(logger, output);
+                return true;
+            }
+        } catch (Throwable e) {
+            if (DEBUG) {
+                e.printStackTrace();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Applies the menu changes that were made before the system tray was ready. This keeps going until there are none left, so that
+     * changes made while applying them are still applied in order. If one fails (or times out), it is logged and the rest are still
+     * applied.
+     */
+    private static
+    void applyPendingTransactions(final SystemTray systemTray) {
+        while (true) {
+            final List<MenuTransaction> transactions;
+            synchronized (startupLock) {
+                if (pendingTransactions.isEmpty()) {
+                    pendingTransactions = null;
+                    return;
+                }
+
+                transactions = new ArrayList<MenuTransaction>(pendingTransactions);
+                pendingTransactions.clear();
+            }
+
+            if (systemTray != null) {
+                for (int i = 0; i < transactions.size(); i++) {
+                    try {
+                        // wait for each, so that they are applied in order
+                        await(systemTray.applyAsync(transactions.get(i)), TIMEOUT, TimeUnit.SECONDS);
+                    } catch (Throwable e) {
+                        logger.error("Unable to apply the menu changes that were made before the system tray was ready", e);
+                    }
+                }
+            }
+        }
+    }
+
     protected final java.util.List<MenuEntry> menuEntries = new ArrayList<>();
 
+    // these index the menu entries (so they do not have to be searched), and are guarded by menuEntries. There can be more than one menu
+    // entry with the same text, in which case the one that has had the text the longest is first (and is the one that is found)
+    private final Map<String, List<MenuEntry>> menuEntriesByText = new HashMap<String, List<MenuEntry>>();
+    private final Map<Integer, MenuEntry> menuEntriesById = new HashMap<Integer, MenuEntry>();
+
+    // the animation that is playing. Only accessed on the dispatch thread
+    private IconAnimation iconAnimation = null;
+
     protected
     SystemTray() {
     }
@@ -535,13 +786,117 @@ class SystemTray {
      */
     protected
     MenuEntry getMenuEntry(String menuText) {
-        for (MenuEntry entry : menuEntries) {
-            if (entry.getText().equals(menuText)) {
-                return entry;
+        final List<MenuEntry> entries = menuEntriesByText.get(menuText);
+        return entries == null ? null : entries.get(0);
+    }
+
+    /**
+     * Must be wrapped in a synchronized block for object visibility
+     *
+     * @param id the id of the menu entry, see {@link MenuEntry#getId()}
+     */
+    protected
+    MenuEntry getMenuEntry(int id) {
+        return menuEntriesById.get(id);
+    }
+
+    /**
+     * Adds a menu entry to the end of the menu entries. Must be wrapped in a synchronized block for object visibility
+     */
+    protected final
+    void putMenuEntry(final MenuEntry menuEntry) {
+        menuEntries.add(menuEntry);
+        menuEntriesById.put(menuEntry.getId(), menuEntry);
+        indexMenuEntryText(menuEntry, menuEntry.getText());
+    }
+
+    /**
+     * Removes a menu entry from the menu entries. Must be wrapped in a synchronized block for object visibility
+     *
+     * @return true if the menu entry was one of the menu entries
+     */
+    protected final
+    boolean unlinkMenuEntry(final MenuEntry menuEntry) {
+        if (menuEntriesById.remove(menuEntry.getId()) == null) {
+            return false;
+        }
+
+        menuEntries.remove(menuEntry);
+        unindexMenuEntryText(menuEntry, menuEntry.getText());
+        return true;
+    }
+
+    /**
+     * Removes all of the menu entries. Must be wrapped in a synchronized block for object visibility
+     */
+    protected final
+    void clearMenuEntries() {
+        menuEntries.clear();
+        menuEntriesById.clear();
+        menuEntriesByText.clear();
+    }
+
+    /**
+     * Must be called when the text of a menu entry has changed, so that it can be found by the new text (and no longer by the old text).
+     */
+    protected final
+    void updateMenuEntryIndex(final MenuEntry menuEntry, final String oldText) {
+        synchronized (menuEntries) {
+            if (!menuEntriesById.containsKey(menuEntry.getId())) {
+                // not (or no longer) one of the menu entries
+                return;
             }
+
+            unindexMenuEntryText(menuEntry, oldText);
+            indexMenuEntryText(menuEntry, menuEntry.getText());
+        }
+    }
+
+    private
+    void indexMenuEntryText(final MenuEntry menuEntry, final String text) {
+        List<MenuEntry> entries = menuEntriesByText.get(text);
+        if (entries == null) {
+            // almost always, only one menu entry has the text
+            entries = new ArrayList<MenuEntry>(1);
+            menuEntriesByText.put(text, entries);
+        }
+        entries.add(menuEntry);
+    }
+
+    private
+    void unindexMenuEntryText(final MenuEntry menuEntry, final String text) {
+        final List<MenuEntry> entries = menuEntriesByText.get(text);
+        if (entries != null && entries.remove(menuEntry) && entries.isEmpty()) {
+            menuEntriesByText.remove(text);
+        }
+    }
+
+    /**
+     * Must be wrapped in a synchronized block for object visibility
+     *
+     * @param missing the menu text is added to this list if there is no menu entry for it
+     */
+    MenuEntry getMenuEntry_(final String menuText, final List<String> missing) {
+        MenuEntry menuEntry = getMenuEntry(menuText);
+        if (menuEntry == null) {
+            missing.add(menuText);
         }
+        return menuEntry;
+    }
 
-        return null;
+    /**
+     * Called on the dispatch thread before a batch of menu changes is applied, so that implementations can defer re-laying out the
+     * menu until {@link #endMenuUpdate()}.
+     */
+    protected
+    void beginMenuUpdate() {
+    }
+
+    /**
+     * Called on the dispatch thread after a batch of menu changes has been applied.
+     */
+    protected
+    void endMenuUpdate() {
     }
 
 
@@ -565,17 +920,35 @@ class SystemTray {
     protected abstract
     void setIcon_(String iconPath);
 
+    /**
+     * Adds a menu entry. If this is called on the dispatch thread, it is added right away.
+     *
+     * @param iconPath the path of the icon (from one of the ImageUtil.iconPath() methods), or null for no image
+     */
+    protected abstract
+    void addMenuEntry_(String menuText, String iconPath, SystemTrayMenuAction callback);
+
+    /**
+     * Called on the dispatch thread to change the text of a menu entry right away (instead of in a later dispatch, like
+     * {@link MenuEntry#setText(String)} can).
+     */
+    protected abstract
+    void setMenuEntryText_(MenuEntry menuEntry, String newText);
+
     /**
      * Changes the tray icon used.
      *
      * Because the cross-platform, underlying system uses a file path to load icons for the system tray,
      * this will directly use the contents of the specified file.
      *
+     * This stops the icon animation, if there is one.
+     *
      * @param imagePath the path of the icon to use
      */
     public
     void setIcon(String imagePath) {
         final String fullPath = ImageUtil.iconPath(imagePath);
+        stopIconAnimation();
         setIcon_(fullPath);
     }
 
@@ -590,6 +963,7 @@ class SystemTray {
     public
     void setIcon(URL imageUrl) {
         final String fullPath = ImageUtil.iconPath(imageUrl);
+        stopIconAnimation();
         setIcon_(fullPath);
     }
 
@@ -605,6 +979,7 @@ class SystemTray {
     public
     void setIcon(String cacheName, InputStream imageStream) {
         final String fullPath = ImageUtil.iconPath(cacheName, imageStream);
+        stopIconAnimation();
         setIcon_(fullPath);
     }
 
@@ -624,154 +999,302 @@ class SystemTray {
     void setIcon(InputStream imageStream) {
         @SuppressWarnings("deprecation")
         final String fullPath = ImageUtil.iconPathNoCache(imageStream);
+        stopIconAnimation();
         setIcon_(fullPath);
     }
 
 
     /**
-     * Adds a menu entry to the tray icon with text (no image)
+     * Creates an animation of the tray icon (for example, a progress spinner). The frames are loaded once, so playing the animation does
+     * not load the icons again for every frame.
      *
-     * @param menuText string of the text you want to appear
-     * @param callback callback that will be executed when this menu entry is clicked
+     * @param framesPerSecond how many frames are shown every second
+     * @param imagePaths the paths of the icons for each frame
      */
-    public final
-    void addMenuEntry(String menuText, SystemTrayMenuAction callback) {
-        addMenuEntry(menuText, (String) null, callback);
-    }
+    public
+    IconAnimation createIconAnimation(final int framesPerSecond, final String... imagePaths) {
+        final String[] iconPaths = new String[imagePaths.length];
+        for (int i = 0; i < imagePaths.length; i++) {
+            iconPaths[i] = ImageUtil.iconPath(imagePaths[i]);
+        }
 
+        return new IconAnimation(this, framesPerSecond, iconPaths);
+    }
 
     /**
-     * Adds a menu entry to the tray icon with text + image
+     * Creates an animation of the tray icon (for example, a progress spinner). The frames are loaded once, so playing the animation does
+     * not load the icons again for every frame.
      *
-     * @param menuText string of the text you want to appear
-     * @param imagePath the image (full path required) to use. If null, no image will be used
-     * @param callback callback that will be executed when this menu entry is clicked
+     * @param framesPerSecond how many frames are shown every second
+     * @param imageUrls the URLs of the icons for each frame
      */
-    public abstract
-    void addMenuEntry(String menuText, String imagePath, SystemTrayMenuAction callback);
+    public
+    IconAnimation createIconAnimation(final int framesPerSecond, final URL... imageUrls) {
+        final String[] iconPaths = new String[imageUrls.length];
+        for (int i = 0; i < imageUrls.length; i++) {
+            iconPaths[i] = ImageUtil.iconPath(imageUrls[i]);
+        }
 
-    /**
-     * Adds a menu entry to the tray icon with text + image
-     *
-     * @param menuText string of the text you want to appear
-     * @param imageUrl the URL of the image to use. If null, no image will be used
-     * @param callback callback that will be executed when this menu entry is clicked
-     */
-    public abstract
-    void addMenuEntry(String menuText, URL imageUrl, SystemTrayMenuAction callback);
+        return new IconAnimation(this, framesPerSecond, iconPaths);
+    }
 
     /**
-     * Adds a menu entry to the tray icon with text + image
-     *
-     * @param menuText string of the text you want to appear
-     * @param cacheName @param cacheName the name to use for lookup in the cache for the imageStream
-     * @param imageStream the InputStream of the image to use. If null, no image will be used
-     * @param callback callback that will be executed when this menu entry is clicked
+     * Called on the dispatch thread when an animation starts. Stops the animation that was running.
      */
-    public abstract
-    void addMenuEntry(String menuText, String cacheName, InputStream imageStream, SystemTrayMenuAction callback);
+    void setIconAnimation(final IconAnimation iconAnimation) {
+        final IconAnimation previous = this.iconAnimation;
+        if (previous != null && previous != iconAnimation) {
+            previous.stop_(false);
+        }
+        this.iconAnimation = iconAnimation;
+    }
 
     /**
-     * Adds a menu entry to the tray icon with text + image
-     *
-     * This method **DOES NOT CACHE** the result, so multiple lookups for the same inputStream result in new files every time. This is
-     * also NOT RECOMMENDED, but is provided for simplicity.
-     *
-     * @param menuText string of the text you want to appear
-     * @param imageStream the InputStream of the image to use. If null, no image will be used
-     * @param callback callback that will be executed when this menu entry is clicked
+     * Called on the dispatch thread when an animation stops.
      */
-    @Deprecated
-    public abstract
-    void addMenuEntry(String menuText, InputStream imageStream, SystemTrayMenuAction callback);
+    void clearIconAnimation(final IconAnimation iconAnimation) {
+        if (this.iconAnimation == iconAnimation) {
+            this.iconAnimation = null;
+        }
+    }
+
+    private
+    void stopIconAnimation() {
+        dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                stopIconAnimation_();
+            }
+        });
+    }
 
+    /**
+     * Called on the dispatch thread, before the tray icon is replaced
+     */
+    void stopIconAnimation_() {
+        final IconAnimation iconAnimation = this.iconAnimation;
+        if (iconAnimation != null) {
+            iconAnimation.stop_(false);
+        }
+    }
 
     /**
-     * Updates (or changes) the menu entry's text.
+     * Called on the dispatch thread. Loads an animation frame, so that it can be shown (many times) by {@link #showIconFrame(Object)}
+     * without loading the icon again.
      *
-     * @param origMenuText the original menu text
-     * @param newMenuText the new menu text (this will replace the original menu text)
+     * @param iconPath the path of the icon, from one of the ImageUtil.iconPath() methods
+     *
+     * @return the loaded frame, which is only used by this system tray
      */
-    public final
-    void updateMenuEntry_Text(final String origMenuText, final String newMenuText) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
+    protected
+    Object loadIconFrame(final String iconPath) {
+        return iconPath;
+    }
 
-        dispatch(new Runnable() {
+    /**
+     * Called on the dispatch thread for every frame of an animation. This should not allocate anything.
+     *
+     * @param frame the frame, from {@link #loadIconFrame(String)}
+     */
+    protected
+    void showIconFrame(final Object frame) {
+        setIcon_((String) frame);
+    }
+
+    /**
+     * Called on the dispatch thread when the animation no longer needs the frame.
+     *
+     * @param frame the frame, from {@link #loadIconFrame(String)}
+     */
+    protected
+    void releaseIconFrame(final Object frame) {
+    }
+
+    /**
+     * Runs the tick on the dispatch thread every interval, until it is cancelled. If the dispatch thread falls behind, ticks are skipped
+     * (they are not queued up).
+     *
+     * @return a runnable that cancels the timer
+     */
+    protected
+    Runnable startTimer(final int intervalMillis, final Runnable tick) {
+        final AtomicBoolean isTickPending = new AtomicBoolean(false);
+        final Runnable dispatchedTick = new Runnable() {
             @Override
             public
             void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
+                isTickPending.set(false);
+                tick.run();
+            }
+        };
 
-                    if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setText(newMenuText);
+        final ScheduledFuture<?> timer = animationTimer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public
+            void run() {
+                // only one tick at a time waits for the dispatch thread
+                if (isTickPending.compareAndSet(false, true)) {
+                    try {
+                        dispatch(dispatchedTick);
+                    } catch (RuntimeException e) {
+                        // the tick is skipped (the dispatch queue is full). The timer must keep going, so this is not thrown
+                        isTickPending.set(false);
                     }
                 }
-                countDownLatch.countDown();
             }
-        });
-
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
 
+        return new Runnable() {
+            @Override
+            public
+            void run() {
+                timer.cancel(false);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+        };
     }
 
     /**
-     * Updates (or changes) the menu entry's text.
+     * Adds a menu entry to the tray icon with text (no image)
      *
-     * @param origMenuText the original menu text
-     * @param imagePath the new path for the image to use or null to delete the image
+     * @param menuText string of the text you want to appear
+     * @param callback callback that will be executed when this menu entry is clicked
      */
     public final
-    void updateMenuEntry_Image(final String origMenuText, final String imagePath) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
+    void addMenuEntry(String menuText, SystemTrayMenuAction callback) {
+        addMenuEntry(menuText, (String) null, callback);
+    }
+
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param imagePath the image (full path required) to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public abstract
+    void addMenuEntry(String menuText, String imagePath, SystemTrayMenuAction callback);
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param imageUrl the URL of the image to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public abstract
+    void addMenuEntry(String menuText, URL imageUrl, SystemTrayMenuAction callback);
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * @param menuText string of the text you want to appear
+     * @param cacheName @param cacheName the name to use for lookup in the cache for the imageStream
+     * @param imageStream the InputStream of the image to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    public abstract
+    void addMenuEntry(String menuText, String cacheName, InputStream imageStream, SystemTrayMenuAction callback);
+
+    /**
+     * Adds a menu entry to the tray icon with text + image
+     *
+     * This method **DOES NOT CACHE** the result, so multiple lookups for the same inputStream result in new files every time. This is
+     * also NOT RECOMMENDED, but is provided for simplicity.
+     *
+     * @param menuText string of the text you want to appear
+     * @param imageStream the InputStream of the image to use. If null, no image will be used
+     * @param callback callback that will be executed when this menu entry is clicked
+     */
+    @Deprecated
+    public abstract
+    void addMenuEntry(String menuText, InputStream imageStream, SystemTrayMenuAction callback);
+
+
+    /**
+     * Runs the callable on the dispatch thread.
+     *
+     * @return a future that is completed with the result of the callable (on the dispatch thread)
+     */
+    private
+    <T> CompletableFuture<T> dispatchAsync(final Callable<T> callable) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
 
         dispatch(new Runnable() {
             @Override
             public
             void run() {
+                try {
+                    future.complete(callable.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Runs the update for a menu entry on the dispatch thread.
+     *
+     * @return a future that is completed with true when the update has been applied, or false if there is no menu entry for the
+     * given text
+     */
+    private
+    CompletableFuture<Boolean> updateMenuEntryAsync_(final String origMenuText, final Consumer<MenuEntry> update) {
+        return dispatchAsync(new Callable<Boolean>() {
+            @Override
+            public
+            Boolean call() {
                 synchronized (menuEntries) {
                     MenuEntry menuEntry = getMenuEntry(origMenuText);
 
                     if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setImage(imagePath);
+                        return Boolean.FALSE;
                     }
+
+                    update.accept(menuEntry);
+                    return Boolean.TRUE;
                 }
-                countDownLatch.countDown();
             }
         });
+    }
 
+    /**
+     * Waits for something that was dispatched to complete.
+     *
+     * @return the result, or null if the calling thread was interrupted while waiting
+     */
+    private static
+    <T> T await(final Future<T> future, final long timeout, final TimeUnit unit) {
         try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
-
+            return future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Event dispatch queue took longer than " + timeout + " " + unit.name().toLowerCase(Locale.US) +
+                                       " to complete. Please adjust `SystemTray.TIMEOUT` to a value which better suites your environment.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
         } catch (InterruptedException e) {
             e.printStackTrace();
+            return null;
         }
+    }
 
-        if (!hasValue.get()) {
+    /**
+     * Waits for the update of a menu entry to complete.
+     */
+    private static
+    void awaitMenuEntry(final Future<Boolean> future, final String origMenuText) {
+        if (Boolean.FALSE.equals(await(future, TIMEOUT, TimeUnit.SECONDS))) {
             throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
         }
     }
@@ -780,95 +1303,173 @@ class SystemTray {
      * Updates (or changes) the menu entry's text.
      *
      * @param origMenuText the original menu text
-     * @param imageUrl the new URL for the image to use or null to delete the image
+     * @param newMenuText the new menu text (this will replace the original menu text)
      */
     public final
-    void updateMenuEntry_Image(final String origMenuText, final URL imageUrl) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
+    void updateMenuEntry_Text(final String origMenuText, final String newMenuText) {
+        awaitMenuEntry(updateMenuEntry_TextAsync(origMenuText, newMenuText), origMenuText);
+    }
 
-        dispatch(new Runnable() {
+    /**
+     * Updates (or changes) the menu entry's text, without waiting for the change to be applied.
+     * <p>
+     * To wait with a specific timeout, use {@code get(timeout, unit)} on the returned future.
+     *
+     * @param origMenuText the original menu text
+     * @param newMenuText the new menu text (this will replace the original menu text)
+     *
+     * @return a future that is completed with true once the text has been changed, or false if there is no menu entry for the original
+     * menu text
+     */
+    public final
+    CompletableFuture<Boolean> updateMenuEntry_TextAsync(final String origMenuText, final String newMenuText) {
+        return updateMenuEntryAsync_(origMenuText, new Consumer<MenuEntry>() {
             @Override
             public
-            void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
+            void accept(final MenuEntry menuEntry) {
+                menuEntry.setText(newMenuText);
+            }
+        });
+    }
 
-                    if (menuEntry == null) {
-                        hasValue.set(false);
+    /**
+     * Updates (or changes) the menu entry's image.
+     *
+     * @param origMenuText the original menu text
+     * @param imagePath the new path for the image to use or null to delete the image
+     */
+    public final
+    void updateMenuEntry_Image(final String origMenuText, final String imagePath) {
+        awaitMenuEntry(updateMenuEntry_ImageAsync_(origMenuText, imagePath == null ? null : ImageUtil.iconPath(imagePath)), origMenuText);
+    }
 
-                    }
-                    else {
-                        menuEntry.setImage(imageUrl);
-                    }
-                }
-                countDownLatch.countDown();
+    /**
+     * Updates (or changes) the menu entry's image, without waiting for the change to be applied. The image is resolved on a background
+     * thread (so other changes made afterwards can be applied before this one).
+     * <p>
+     * To wait with a specific timeout, use {@code get(timeout, unit)} on the returned future.
+     *
+     * @param origMenuText the original menu text
+     * @param imagePath the new path for the image to use or null to delete the image
+     *
+     * @return a future that is completed with true once the image has been changed, or false if there is no menu entry for the original
+     * menu text
+     */
+    public final
+    CompletableFuture<Boolean> updateMenuEntry_ImageAsync(final String origMenuText, final String imagePath) {
+        if (imagePath == null) {
+            return updateMenuEntry_ImageAsync_(origMenuText, null);
+        }
+
+        return resolveImageAsync(new Callable<String>() {
+            @Override
+            public
+            String call() {
+                return ImageUtil.iconPath(imagePath);
+            }
+        }).thenCompose(new Function<String, CompletableFuture<Boolean>>() {
+            @Override
+            public
+            CompletableFuture<Boolean> apply(final String iconPath) {
+                return updateMenuEntry_ImageAsync_(origMenuText, iconPath);
             }
         });
+    }
 
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
+    /**
+     * Updates (or changes) the menu entry's image.
+     *
+     * @param origMenuText the original menu text
+     * @param imageUrl the new URL for the image to use or null to delete the image
+     */
+    public final
+    void updateMenuEntry_Image(final String origMenuText, final URL imageUrl) {
+        awaitMenuEntry(updateMenuEntry_ImageAsync_(origMenuText, imageUrl == null ? null : ImageUtil.iconPath(imageUrl)), origMenuText);
+    }
 
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Updates (or changes) the menu entry's image, without waiting for the change to be applied. The image is resolved on a background
+     * thread (so other changes made afterwards can be applied before this one).
+     * <p>
+     * To wait with a specific timeout, use {@code get(timeout, unit)} on the returned future.
+     *
+     * @param origMenuText the original menu text
+     * @param imageUrl the new URL for the image to use or null to delete the image
+     *
+     * @return a future that is completed with true once the image has been changed, or false if there is no menu entry for the original
+     * menu text
+     */
+    public final
+    CompletableFuture<Boolean> updateMenuEntry_ImageAsync(final String origMenuText, final URL imageUrl) {
+        if (imageUrl == null) {
+            return updateMenuEntry_ImageAsync_(origMenuText, null);
         }
 
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+        return resolveImageAsync(new Callable<String>() {
+            @Override
+            public
+            String call() {
+                return ImageUtil.iconPath(imageUrl);
+            }
+        }).thenCompose(new Function<String, CompletableFuture<Boolean>>() {
+            @Override
+            public
+            CompletableFuture<Boolean> apply(final String iconPath) {
+                return updateMenuEntry_ImageAsync_(origMenuText, iconPath);
+            }
+        });
     }
 
     /**
-     * Updates (or changes) the menu entry's text.
+     * Updates (or changes) the menu entry's image.
      *
+     * @param origMenuText the original menu text
      * @param cacheName the name to use for lookup in the cache for the imageStream
      * @param imageStream the InputStream of the image to use or null to delete the image
      */
     public final
     void updateMenuEntry_Image(final String origMenuText, final String cacheName, final InputStream imageStream) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
+        final String imagePath = imageStream == null ? null : ImageUtil.iconPath(cacheName, imageStream);
+        awaitMenuEntry(updateMenuEntry_ImageAsync_(origMenuText, imagePath), origMenuText);
+    }
 
-        dispatch(new Runnable() {
+    /**
+     * Updates (or changes) the menu entry's image, without waiting for the change to be applied. The image is resolved on a background
+     * thread (so other changes made afterwards can be applied before this one).
+     * <p>
+     * To wait with a specific timeout, use {@code get(timeout, unit)} on the returned future.
+     *
+     * @param origMenuText the original menu text
+     * @param cacheName the name to use for lookup in the cache for the imageStream
+     * @param imageStream the InputStream of the image to use or null to delete the image
+     *
+     * @return a future that is completed with true once the image has been changed, or false if there is no menu entry for the original
+     * menu text
+     */
+    public final
+    CompletableFuture<Boolean> updateMenuEntry_ImageAsync(final String origMenuText, final String cacheName, final InputStream imageStream) {
+        if (imageStream == null) {
+            return updateMenuEntry_ImageAsync_(origMenuText, null);
+        }
+
+        // the stream is read (and closed) on the background thread
+        return resolveImageAsync(new Callable<String>() {
             @Override
             public
-            void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
-
-                    if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setImage(cacheName, imageStream);
-                    }
-                }
-                countDownLatch.countDown();
+            String call() {
+                return ImageUtil.iconPath(cacheName, imageStream);
             }
-        });
-
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
-
+        }).thenCompose(new Function<String, CompletableFuture<Boolean>>() {
+            @Override
+            public
+            CompletableFuture<Boolean> apply(final String iconPath) {
+                return updateMenuEntry_ImageAsync_(origMenuText, iconPath);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+        });
     }
 
     /**
-     * Updates (or changes) the menu entry's text.
+     * Updates (or changes) the menu entry's image.
      *
      * This method **DOES NOT CACHE** the result, so multiple lookups for the same inputStream result in new files every time. This is
      * also NOT RECOMMENDED, but is provided for simplicity.
@@ -876,44 +1477,48 @@ class SystemTray {
      * @param origMenuText the original menu text
      * @param imageStream the new path for the image to use or null to delete the image
      */
+    @Deprecated
     public final
     void updateMenuEntry_Image(final String origMenuText, final InputStream imageStream) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
+        @SuppressWarnings("deprecation")
+        final String imagePath = imageStream == null ? null : ImageUtil.iconPathNoCache(imageStream);
+        awaitMenuEntry(updateMenuEntry_ImageAsync_(origMenuText, imagePath), origMenuText);
+    }
 
-        dispatch(new Runnable() {
-            @SuppressWarnings("deprecation")
+    /**
+     * Resolves an image (which can read a file or URL) on the image resolver thread, so that neither the calling thread nor the dispatch
+     * thread waits for it.
+     *
+     * @return a future that is completed with the path of the image
+     */
+    private static
+    CompletableFuture<String> resolveImageAsync(final Callable<String> resolve) {
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        imageResolver.execute(new Runnable() {
             @Override
             public
             void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
-
-                    if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setImage(imageStream);
-                    }
+                try {
+                    future.complete(resolve.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
                 }
-                countDownLatch.countDown();
             }
         });
 
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
+        return future;
+    }
 
+    private
+    CompletableFuture<Boolean> updateMenuEntry_ImageAsync_(final String origMenuText, final String imagePath) {
+        return updateMenuEntryAsync_(origMenuText, new Consumer<MenuEntry>() {
+            @Override
+            public
+            void accept(final MenuEntry menuEntry) {
+                menuEntry.setImage(imagePath);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+        });
     }
 
     /**
@@ -924,41 +1529,13 @@ class SystemTray {
      */
     public final
     void updateMenuEntry_Callback(final String origMenuText, final SystemTrayMenuAction newCallback) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
-
-        dispatch(new Runnable() {
+        awaitMenuEntry(updateMenuEntryAsync_(origMenuText, new Consumer<MenuEntry>() {
             @Override
             public
-            void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
-
-                    if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setCallback(newCallback);
-                    }
-                }
-                countDownLatch.countDown();
-            }
-        });
-
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
-
+            void accept(final MenuEntry menuEntry) {
+                menuEntry.setCallback(newCallback);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+        }), origMenuText);
     }
 
 
@@ -971,42 +1548,82 @@ class SystemTray {
      */
     public final
     void updateMenuEntry(final String origMenuText, final String newMenuText, final SystemTrayMenuAction newCallback) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
-
-        dispatch(new Runnable() {
+        awaitMenuEntry(updateMenuEntryAsync_(origMenuText, new Consumer<MenuEntry>() {
             @Override
             public
-            void run() {
-                synchronized (menuEntries) {
-                    MenuEntry menuEntry = getMenuEntry(origMenuText);
+            void accept(final MenuEntry menuEntry) {
+                menuEntry.setText(newMenuText);
+                menuEntry.setCallback(newCallback);
+            }
+        }), origMenuText);
+    }
 
-                    if (menuEntry == null) {
-                        hasValue.set(false);
-                    }
-                    else {
-                        menuEntry.setText(newMenuText);
-                        menuEntry.setCallback(newCallback);
-                    }
+
+    /**
+     * Queues up many menu changes (adds, removes, text/image/callback changes and the status), and then applies all of them in a
+     * single dispatch onto the dispatch thread, with a single menu re-layout. This waits (only once) for all of the changes to be
+     * applied.
+     *
+     * @param transaction this is given the transaction to queue the menu changes on
+     */
+    public final
+    void batch(final Consumer<MenuTransaction> transaction) {
+        final MenuTransaction menuTransaction = new MenuTransaction();
+        transaction.accept(menuTransaction);
+
+        if (menuTransaction.isEmpty()) {
+            return;
+        }
+
+        final List<String> missing = await(dispatchAsync(menuTransaction), TIMEOUT, TimeUnit.SECONDS);
+
+        if (missing != null && !missing.isEmpty()) {
+            throw new NullPointerException("No menu entry exists for strings " + missing);
+        }
+    }
+
+    /**
+     * Applies the menu changes on the dispatch thread. Menu entries that do not exist are logged (there is no one to throw to).
+     */
+    private
+    CompletableFuture<List<String>> applyAsync(final MenuTransaction menuTransaction) {
+        return dispatchAsync(menuTransaction).whenComplete(new BiConsumer<List<String>, Throwable>() {
+            @Override
+            public
+            void accept(final List<String> missing, final Throwable throwable) {
+                if (throwable != null) {
+                    logger.error("Unable to apply the menu changes", throwable);
+                }
+                else if (!missing.isEmpty()) {
+                    logger.error("No menu entry exists for strings {}", missing);
                 }
-                countDownLatch.countDown();
             }
         });
+    }
 
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
+    /**
+     * @return a future that is completed with the labels of the menu entries that could not be found
+     */
+    private
+    CompletableFuture<List<String>> dispatchAsync(final MenuTransaction menuTransaction) {
+        return dispatchAsync(new Callable<List<String>>() {
+            @Override
+            public
+            List<String> call() {
+                final List<String> missing = new ArrayList<String>();
 
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+                beginMenuUpdate();
+                try {
+                    synchronized (menuEntries) {
+                        menuTransaction.apply(SystemTray.this, missing);
+                    }
+                } finally {
+                    endMenuUpdate();
+                }
 
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + origMenuText + "'");
-        }
+                return missing;
+            }
+        });
     }
 
 
@@ -1023,44 +1640,22 @@ class SystemTray {
 
         final String label = menuEntry.getText();
 
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(false);
-
-        dispatch(new Runnable() {
+        final Boolean removed = await(dispatchAsync(new Callable<Boolean>() {
             @Override
             public
-            void run() {
+            Boolean call() {
                 synchronized (menuEntries) {
-                    for (Iterator<MenuEntry> iterator = menuEntries.iterator(); iterator.hasNext(); ) {
-                        final MenuEntry entry = iterator.next();
-                        if (entry.getText()
-                                 .equals(label)) {
-                            iterator.remove();
-
-                            // this will also reset the menu
-                            menuEntry.remove();
-                            hasValue.set(true);
-                            countDownLatch.countDown();
-                            return;
-                        }
+                    if (unlinkMenuEntry(menuEntry)) {
+                        // this will also reset the menu
+                        menuEntry.remove();
+                        return Boolean.TRUE;
                     }
                 }
-                countDownLatch.countDown();
+                return Boolean.FALSE;
             }
-        });
+        }), TIMEOUT, TimeUnit.SECONDS);
 
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
-
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
+        if (Boolean.FALSE.equals(removed)) {
             throw new NullPointerException("Menu entry '" + label + "'not found in list while trying to remove it.");
         }
     }
@@ -1073,47 +1668,24 @@ class SystemTray {
      */
     public final
     void removeMenuEntry(final String menuText) {
-        // have to wait for the value
-        final CountDownLatch countDownLatch = new CountDownLatch(1);
-        final AtomicBoolean hasValue =  new AtomicBoolean(true);
-
-        dispatch(new Runnable() {
+        awaitMenuEntry(dispatchAsync(new Callable<Boolean>() {
             @Override
             public
-            void run() {
-                dispatch(new Runnable() {
-                    @Override
-                    public
-                    void run() {
-                        synchronized (menuEntries) {
-                            MenuEntry menuEntry = getMenuEntry(menuText);
-
-                            if (menuEntry == null) {
-                                hasValue.set(false);
-                            }
-                            else {
-                                removeMenuEntry(menuEntry);
-                            }
-                        }
-                        countDownLatch.countDown();
+            Boolean call() {
+                synchronized (menuEntries) {
+                    MenuEntry menuEntry = getMenuEntry(menuText);
+
+                    if (menuEntry == null) {
+                        return Boolean.FALSE;
                     }
-                });
-            }
-        });
 
-        try {
-            if (!countDownLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Event dispatch queue took longer than " + TIMEOUT + " seconds to complete. Please adjust " +
-                                           "`SystemTray.TIMEOUT` to a value which better suites your environment.");
+                    unlinkMenuEntry(menuEntry);
 
+                    // this will also reset the menu
+                    menuEntry.remove();
+                    return Boolean.TRUE;
+                }
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (!hasValue.get()) {
-            throw new NullPointerException("No menu entry exists for string '" + menuText + "'");
-        }
+        }), menuText);
     }
 }
-
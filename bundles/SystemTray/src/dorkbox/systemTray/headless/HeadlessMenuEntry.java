@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.headless;
+
+import dorkbox.systemTray.CallbackExecutor;
+import dorkbox.systemTray.CoalescingUpdate;
+import dorkbox.systemTray.ImageUtil;
+import dorkbox.systemTray.MenuEntry;
+import dorkbox.systemTray.SystemTrayMenuAction;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A menu entry that is not shown anywhere. See {@link HeadlessSystemTray}
+ */
+public
+class HeadlessMenuEntry implements MenuEntry {
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger();
+    private final int id = ID_COUNTER.getAndIncrement();
+
+    private final HeadlessSystemTray systemTray;
+
+    private volatile String text;
+    private volatile SystemTrayMenuAction callback;
+    private final CallbackExecutor.EntryQueue callbacks = new CallbackExecutor.EntryQueue();
+
+    // only accessed on the dispatch thread
+    private String imagePath;
+    private boolean isRemoved = false;
+
+    // text/image changes can happen faster than they are applied, so only the newest one is applied
+    private final CoalescingUpdate<String> textUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            systemTray.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String newText) {
+            if (!isRemoved) {
+                systemTray.updateApplied();
+            }
+        }
+    };
+
+    private final CoalescingUpdate<String> imageUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            systemTray.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String imagePath) {
+            if (!isRemoved) {
+                setImage__(imagePath);
+                systemTray.updateApplied();
+            }
+        }
+    };
+
+    /**
+     * called on the dispatch thread
+     */
+    HeadlessMenuEntry(final String label, final String imagePath, final SystemTrayMenuAction callback,
+                      final HeadlessSystemTray systemTray) {
+        this.systemTray = systemTray;
+        this.text = label;
+        this.callback = callback;
+
+        setImage__(imagePath);
+    }
+
+    /**
+     * Clicks the menu entry from the dispatch thread, the same as when a menu entry is clicked in a real system tray. The callback
+     * runs on the {@link CallbackExecutor}.
+     */
+    public
+    void click() {
+        systemTray.dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                final SystemTrayMenuAction cb = callback;
+                if (cb != null && !isRemoved) {
+                    callbacks.execute(new Runnable() {
+                        @Override
+                        public
+                        void run() {
+                            cb.onClick(systemTray, HeadlessMenuEntry.this);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Override
+    public
+    int getId() {
+        return id;
+    }
+
+    @Override
+    public
+    String getText() {
+        return text;
+    }
+
+    @Override
+    public
+    void setText(final String newText) {
+        final String oldText = this.text;
+        this.text = newText;
+        systemTray.menuEntryTextChanged(this, oldText);
+
+        textUpdate.set(newText);
+    }
+
+    /**
+     * called on the dispatch thread. The text is changed right away.
+     */
+    void setText_(final String newText) {
+        final String oldText = this.text;
+        this.text = newText;
+        systemTray.menuEntryTextChanged(this, oldText);
+
+        textUpdate.setNow(newText);
+    }
+
+    /**
+     * called on the dispatch thread
+     */
+    private
+    void setImage__(final String imagePath) {
+        // the icon must not be evicted from the cache while it is used
+        if (imagePath != null) {
+            ImageUtil.retainIcon(imagePath);
+        }
+        if (this.imagePath != null) {
+            ImageUtil.releaseIcon(this.imagePath);
+        }
+        this.imagePath = imagePath;
+    }
+
+    @Override
+    public
+    void setImage(final String imagePath) {
+        if (imagePath == null) {
+            imageUpdate.set(null);
+        }
+        else {
+            imageUpdate.set(ImageUtil.iconPath(imagePath));
+        }
+    }
+
+    @Override
+    public
+    void setImage(final URL imageUrl) {
+        if (imageUrl == null) {
+            imageUpdate.set(null);
+        }
+        else {
+            imageUpdate.set(ImageUtil.iconPath(imageUrl));
+        }
+    }
+
+    @Override
+    public
+    void setImage(final String cacheName, final InputStream imageStream) {
+        if (imageStream == null) {
+            imageUpdate.set(null);
+        }
+        else {
+            imageUpdate.set(ImageUtil.iconPath(cacheName, imageStream));
+        }
+    }
+
+    @Override
+    @Deprecated
+    public
+    void setImage(final InputStream imageStream) {
+        if (imageStream == null) {
+            imageUpdate.set(null);
+        }
+        else {
+            imageUpdate.set(ImageUtil.iconPathNoCache(imageStream));
+        }
+    }
+
+    @Override
+    public
+    void setCallback(final SystemTrayMenuAction callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * This is ONLY called via systray.menuEntry.remove() !!
+     */
+    @Override
+    public
+    void remove() {
+        systemTray.dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                isRemoved = true;
+                callback = null;
+                setImage__(null);
+            }
+        });
+    }
+}
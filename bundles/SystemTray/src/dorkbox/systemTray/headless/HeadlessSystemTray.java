@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.headless;
+
+import dorkbox.systemTray.CoalescingUpdate;
+import dorkbox.systemTray.ImageUtil;
+import dorkbox.systemTray.MenuEntry;
+import dorkbox.systemTray.SystemTray;
+import dorkbox.systemTray.SystemTrayMenuAction;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for a system tray that is not shown anywhere. It has the menu, the dispatch thread, the icons and the callbacks of a real system
+ * tray, but nothing is drawn. This works without a desktop (and in a headless JVM), for example for load testing or on build servers.
+ *
+ * Menu entries can be 'clicked' via {@link HeadlessMenuEntry#click()}.
+ */
+public
+class HeadlessSystemTray extends SystemTray {
+    // stands in for the GTK/Swing event thread
+    private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public
+        Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "SystemTray Headless Dispatch");
+            thread.setDaemon(true);
+            dispatchThread = thread;
+            return thread;
+        }
+    });
+    private volatile Thread dispatchThread;
+
+    private final AtomicLong appliedUpdates = new AtomicLong();
+
+    private volatile String statusText = null;
+    private volatile String appliedStatusText = null;
+    // only accessed on the dispatch thread
+    private String iconPath = null;
+
+    // the status can change faster than it is applied, so only the newest one is applied
+    private final CoalescingUpdate<String> statusUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            HeadlessSystemTray.this.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String statusText) {
+            appliedStatusText = statusText;
+            updateApplied();
+        }
+    };
+
+    /**
+     * Creates a new system tray handler class.
+     */
+    public
+    HeadlessSystemTray() {
+        super();
+    }
+
+    @Override
+    protected
+    void dispatch(final Runnable runnable) {
+        if (Thread.currentThread() == dispatchThread) {
+            // if we are ALREADY on the dispatch thread
+            runnable.run();
+        }
+        else {
+            dispatchExecutor.execute(runnable);
+        }
+    }
+
+    /**
+     * Called when the text of a menu entry has changed
+     */
+    void menuEntryTextChanged(final HeadlessMenuEntry menuEntry, final String oldText) {
+        updateMenuEntryIndex(menuEntry, oldText);
+    }
+
+    @Override
+    protected
+    void setMenuEntryText_(final MenuEntry menuEntry, final String newText) {
+        ((HeadlessMenuEntry) menuEntry).setText_(newText);
+    }
+
+    /**
+     * Called on the dispatch thread every time a change has been applied
+     */
+    void updateApplied() {
+        appliedUpdates.incrementAndGet();
+    }
+
+    /**
+     * @return how many changes (menu entries, text, images, status and icon) have been applied on the dispatch thread
+     */
+    public
+    long getAppliedUpdates() {
+        return appliedUpdates.get();
+    }
+
+    /**
+     * @return the status text that was last applied on the dispatch thread
+     */
+    public
+    String getAppliedStatus() {
+        return appliedStatusText;
+    }
+
+    @Override
+    public
+    void shutdown() {
+        dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                synchronized (menuEntries) {
+                    for (int i = 0; i < menuEntries.size(); i++) {
+                        menuEntries.get(i).remove();
+                    }
+                    clearMenuEntries();
+                }
+
+                if (iconPath != null) {
+                    ImageUtil.releaseIcon(iconPath);
+                    iconPath = null;
+                }
+            }
+        });
+
+        dispatchExecutor.shutdown();
+    }
+
+    @Override
+    public
+    String getStatus() {
+        return this.statusText;
+    }
+
+    @Override
+    public
+    void setStatus(final String statusText) {
+        this.statusText = statusText;
+        statusUpdate.set(statusText);
+    }
+
+    @Override
+    protected
+    void setIcon_(final String iconPath) {
+        dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                ImageUtil.retainIcon(iconPath);
+
+                // the previous icon is no longer shown
+                if (HeadlessSystemTray.this.iconPath != null) {
+                    ImageUtil.releaseIcon(HeadlessSystemTray.this.iconPath);
+                }
+                HeadlessSystemTray.this.iconPath = iconPath;
+
+                updateApplied();
+                iconShown();
+            }
+        });
+    }
+
+    /**
+     * Will add a new menu entry, or update one if it already exists
+     */
+    @Override
+    protected
+    void addMenuEntry_(final String menuText, final String imagePath, final SystemTrayMenuAction callback) {
+        if (menuText == null) {
+            throw new NullPointerException("Menu text cannot be null");
+        }
+
+        dispatch(new Runnable() {
+            @Override
+            public
+            void run() {
+                synchronized (menuEntries) {
+                    MenuEntry menuEntry = getMenuEntry(menuText);
+
+                    if (menuEntry != null) {
+                        throw new IllegalArgumentException("Menu entry already exists for given label '" + menuText + "'");
+                    }
+                    else {
+                        menuEntry = new HeadlessMenuEntry(menuText, imagePath, callback, HeadlessSystemTray.this);
+                        putMenuEntry(menuEntry);
+                    }
+                }
+
+                updateApplied();
+            }
+        });
+    }
+
+    @Override
+    public
+    void addMenuEntry(String menuText, final String imagePath, final SystemTrayMenuAction callback) {
+        if (imagePath == null) {
+            addMenuEntry_(menuText, null, callback);
+        }
+        else {
+            addMenuEntry_(menuText, ImageUtil.iconPath(imagePath), callback);
+        }
+    }
+
+    @Override
+    public
+    void addMenuEntry(final String menuText, final URL imageUrl, final SystemTrayMenuAction callback) {
+        if (imageUrl == null) {
+            addMenuEntry_(menuText, null, callback);
+        }
+        else {
+            addMenuEntry_(menuText, ImageUtil.iconPath(imageUrl), callback);
+        }
+    }
+
+    @Override
+    public
+    void addMenuEntry(final String menuText, final String cacheName, final InputStream imageStream, final SystemTrayMenuAction callback) {
+        if (imageStream == null) {
+            addMenuEntry_(menuText, null, callback);
+        }
+        else {
+            addMenuEntry_(menuText, ImageUtil.iconPath(cacheName, imageStream), callback);
+        }
+    }
+
+    @Override
+    @Deprecated
+    public
+    void addMenuEntry(final String menuText, final InputStream imageStream, final SystemTrayMenuAction callback) {
+        if (imageStream == null) {
+            addMenuEntry_(menuText, null, callback);
+        }
+        else {
+            addMenuEntry_(menuText, ImageUtil.iconPathNoCache(imageStream), callback);
+        }
+    }
+}
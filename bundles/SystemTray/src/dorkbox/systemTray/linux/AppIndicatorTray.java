@@ -16,6 +16,7 @@
 package dorkbox.systemTray.linux;
 
 import com.sun.jna.Pointer;
+import dorkbox.systemTray.ImageUtil;
 import dorkbox.systemTray.SystemTray;
 import dorkbox.systemTray.linux.jna.AppIndicator;
 import dorkbox.systemTray.linux.jna.AppIndicatorInstanceStruct;
@@ -37,6 +38,9 @@ class AppIndicatorTray extends GtkTypeSystemTray {
     private AppIndicatorInstanceStruct appIndicator;
     private boolean isActive = false;
 
+    // the icon that is shown. Only accessed on the dispatch thread
+    private String iconFile;
+
     // This is required if we have JavaFX or SWT shutdown hooks (to prevent us from shutting down twice...)
     private AtomicBoolean shuttingDown = new AtomicBoolean();
 
@@ -72,6 +76,11 @@ class AppIndicatorTray extends GtkTypeSystemTray {
                     Gobject.g_object_unref(p);
 
                     appIndicator = null;
+
+                    if (iconFile != null) {
+                        ImageUtil.releaseIcon(iconFile);
+                        iconFile = null;
+                    }
                 }
             });
 
@@ -79,26 +88,92 @@ class AppIndicatorTray extends GtkTypeSystemTray {
         }
     }
 
+    @Override
+    protected
+    Object loadIconFrame(final String iconPath) {
+        // app indicators can only load icons from a file, so the frame is the file. It is retained first, so it is not deleted before it
+        // is written
+        ImageUtil.retainIcon(iconPath);
+        try {
+            return ImageUtil.iconFile(iconPath);
+        } catch (RuntimeException e) {
+            ImageUtil.releaseIcon(iconPath);
+            throw e;
+        }
+    }
+
+    @Override
+    protected
+    void showIconFrame(final Object frame) {
+        AppIndicator.app_indicator_set_icon(appIndicator, (String) frame);
+
+        if (!isActive) {
+            isActive = true;
+            AppIndicator.app_indicator_set_status(appIndicator, AppIndicator.STATUS_ACTIVE);
+        }
+
+        iconShown();
+    }
+
+    @Override
+    protected
+    void releaseIconFrame(final Object frame) {
+        ImageUtil.releaseIcon((String) frame);
+    }
+
     @Override
     protected
     void setIcon_(final String iconPath) {
-        dispatch(new Runnable() {
+        // app indicators can only load icons from a file. The file must not be deleted while it is shown (it can be loaded again by the
+        // indicator), so it is retained before it is written
+        ImageUtil.retainIcon(iconPath);
+        final String iconFile;
+        try {
+            iconFile = ImageUtil.iconFile(iconPath);
+        } catch (RuntimeException e) {
+            ImageUtil.releaseIcon(iconPath);
+            throw e;
+        }
+
+        final Runnable runnable = new Runnable() {
             @Override
             public
             void run() {
-                AppIndicator.app_indicator_set_icon(appIndicator, iconPath);
+                if (appIndicator == null) {
+                    // the tray was shut down before this icon could be shown
+                    ImageUtil.releaseIcon(iconFile);
+                    return;
+                }
+
+                AppIndicator.app_indicator_set_icon(appIndicator, iconFile);
+
+                if (AppIndicatorTray.this.iconFile != null) {
+                    ImageUtil.releaseIcon(AppIndicatorTray.this.iconFile);
+                }
+                AppIndicatorTray.this.iconFile = iconFile;
 
                 if (!isActive) {
                     isActive = true;
 
                     AppIndicator.app_indicator_set_status(appIndicator, AppIndicator.STATUS_ACTIVE);
                 }
+
+                iconShown();
             }
-        });
+        };
+
+        try {
+            dispatch(runnable);
+        } catch (RuntimeException e) {
+            // it will never be shown
+            ImageUtil.releaseIcon(iconFile);
+            throw e;
+        }
     }
 
     /**
-     * MUST BE AFTER THE ITEM IS ADDED/CHANGED from the menu
+     * MUST BE AFTER THE FIRST ITEM IS ADDED to the menu (or after the menu was recreated). Items inserted/removed afterwards are picked
+     * up by the indicator from the live menu, so this is not called for every change.
      */
     protected
     void onMenuAdded(final Pointer menu) {
@@ -25,6 +25,9 @@ public
 class GnomeShellExtension {
     static final String UID = "SystemTray@Dorkbox";
 
+    // change this when the extension changes, so that it is installed again
+    static final int EXTENSION_VERSION = 1;
+
     @Property
     /** Permit the gnome-shell to be restarted when the extension is installed. */
     public static boolean ENABLE_SHELL_RESTART = true;
@@ -90,7 +93,7 @@ class GnomeShellExtension {
                           "  ],\n" +
                           "  \"url\": \"https://github.com/dorkbox/SystemTray\",\n" +
                           "  \"uuid\": \"" + UID + "\",\n" +
-                          "  \"version\": 1\n" +
+                          "  \"version\": " + EXTENSION_VERSION + "\n" +
                           "}\n";
 
 
@@ -17,10 +17,13 @@ package dorkbox.systemTray.linux;
 
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
+import dorkbox.systemTray.CallbackExecutor;
+import dorkbox.systemTray.CoalescingUpdate;
 import dorkbox.systemTray.ImageUtil;
 import dorkbox.systemTray.MenuEntry;
 import dorkbox.systemTray.SystemTrayMenuAction;
 import dorkbox.systemTray.linux.jna.GCallback;
+import dorkbox.systemTray.linux.jna.GdkPixbuf;
 import dorkbox.systemTray.linux.jna.Gobject;
 import dorkbox.systemTray.linux.jna.Gtk;
 
@@ -41,8 +44,76 @@ class GtkMenuEntry implements MenuEntry, GCallback {
     // these have to be volatile, because they can be changed from any thread
     private volatile String text;
     private volatile SystemTrayMenuAction callback;
+    private final CallbackExecutor.EntryQueue callbacks = new CallbackExecutor.EntryQueue();
     private volatile Pointer image;
 
+    // the icon that is shown (and the shared pixbuf for it, if there is one). Only accessed on the dispatch thread
+    private String imagePath;
+    private String pixbufPath;
+
+    // only the dispatch thread changes this
+    private boolean isRemoved = false;
+
+    // text/image changes can happen faster than they are applied, so only the newest one is applied
+    private final CoalescingUpdate<String> textUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            Gtk.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String newText) {
+            if (isRemoved) {
+                return;
+            }
+
+            final String oldText = text;
+            text = newText;
+            parent.menuEntryTextChanged(GtkMenuEntry.this, oldText);
+
+            Gtk.gtk_menu_item_set_label(menuItem, newText);
+
+            Gtk.gtk_widget_show_all(menuItem);
+        }
+    };
+
+    private final CoalescingUpdate<String> imageUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            Gtk.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String imagePath) {
+            if (isRemoved) {
+                return;
+            }
+
+            if (image != null) {
+                Gtk.gtk_widget_destroy(image);
+                image = null;
+            }
+            releaseImage();
+
+            Gtk.gtk_widget_show_all(menuItem);
+
+            if (imagePath != null && !imagePath.isEmpty()) {
+                image = newImage(imagePath);
+                Gtk.gtk_image_menu_item_set_image(menuItem, image);
+                Gobject.g_object_ref_sink(image);
+
+                //  must always re-set always-show after setting the image
+                Gtk.gtk_image_menu_item_set_always_show_image(menuItem, Gtk.TRUE);
+            }
+
+            Gtk.gtk_widget_show_all(menuItem);
+        }
+    };
+
     /**
      * called from inside dispatch thread. ONLY creates the menu item, but DOES NOT attach it!
      * this is a FLOATING reference. See: https://developer.gnome.org/gobject/stable/gobject-The-Base-Object-Type.html#floating-ref
@@ -58,7 +129,7 @@ class GtkMenuEntry implements MenuEntry, GCallback {
             // NOTE: XFCE uses appindicator3, which DOES NOT support images in the menu. This change was reverted.
             // see: https://ask.fedoraproject.org/en/question/23116/how-to-fix-missing-icons-in-program-menus-and-context-menus/
             // see: https://git.gnome.org/browse/gtk+/commit/?id=627a03683f5f41efbfc86cc0f10e1b7c11e9bb25
-            image = Gtk.gtk_image_new_from_file(imagePath);
+            image = newImage(imagePath);
 
             Gtk.gtk_image_menu_item_set_image(menuItem, image);
             //  must always re-set always-show after setting the image
@@ -69,22 +140,63 @@ class GtkMenuEntry implements MenuEntry, GCallback {
     }
 
 
+    /**
+     * called from inside dispatch thread. Icons that are only in memory do not have to be written to disk first.
+     */
+    private
+    Pointer newImage(final String imagePath) {
+        ImageUtil.retainIcon(imagePath);
+        this.imagePath = imagePath;
+
+        final Pointer pixbuf = GdkPixbuf.acquire(imagePath);
+        if (pixbuf != null) {
+            pixbufPath = imagePath;
+            return Gtk.gtk_image_new_from_pixbuf(pixbuf);
+        }
+
+        return Gtk.gtk_image_new_from_file(ImageUtil.iconFile(imagePath));
+    }
+
+    /**
+     * called from inside dispatch thread, after the image has been destroyed
+     */
+    private
+    void releaseImage() {
+        if (pixbufPath != null) {
+            GdkPixbuf.release(pixbufPath);
+            pixbufPath = null;
+        }
+        if (imagePath != null) {
+            ImageUtil.releaseIcon(imagePath);
+            imagePath = null;
+        }
+    }
+
     // called by native code
     @Override
     public
     int callback(final Pointer instance, final Pointer data) {
         final SystemTrayMenuAction cb = this.callback;
         if (cb != null) {
-            try {
-                cb.onClick(parent, GtkMenuEntry.this);
-            } catch (Throwable throwable) {
-                throwable.printStackTrace();
-            }
+            // the callback does not run on the GTK thread, so a slow callback does not freeze the tray
+            callbacks.execute(new Runnable() {
+                @Override
+                public
+                void run() {
+                    cb.onClick(parent, GtkMenuEntry.this);
+                }
+            });
         }
 
         return Gtk.TRUE;
     }
 
+    @Override
+    public
+    int getId() {
+        return id;
+    }
+
     @Override
     public
     String getText() {
@@ -94,43 +206,19 @@ class GtkMenuEntry implements MenuEntry, GCallback {
     @Override
     public
     void setText(final String newText) {
-        Gtk.dispatch(new Runnable() {
-            @Override
-            public
-            void run() {
-                text = newText;
-                Gtk.gtk_menu_item_set_label(menuItem, newText);
+        textUpdate.set(newText);
+    }
 
-                Gtk.gtk_widget_show_all(menuItem);
-            }
-        });
+    /**
+     * called from inside dispatch thread. The text is changed right away.
+     */
+    void setText_(final String newText) {
+        textUpdate.setNow(newText);
     }
 
     private
     void setImage_(final String imagePath) {
-        Gtk.dispatch(new Runnable() {
-            @Override
-            public
-            void run() {
-                if (image != null) {
-                    Gtk.gtk_widget_destroy(image);
-                    image = null;
-                }
-
-                Gtk.gtk_widget_show_all(menuItem);
-
-                if (imagePath != null && !imagePath.isEmpty()) {
-                    image = Gtk.gtk_image_new_from_file(imagePath);
-                    Gtk.gtk_image_menu_item_set_image(menuItem, image);
-                    Gobject.g_object_ref_sink(image);
-
-                    //  must always re-set always-show after setting the image
-                    Gtk.gtk_image_menu_item_set_always_show_image(menuItem, Gtk.TRUE);
-                }
-
-                Gtk.gtk_widget_show_all(menuItem);
-            }
-        });
+        imageUpdate.set(imagePath);
     }
 
     @Override
@@ -194,23 +282,23 @@ class GtkMenuEntry implements MenuEntry, GCallback {
             public
             void run() {
                 removePrivate();
-
-                // have to rebuild the menu now...
-                parent.deleteMenu();
-                parent.createMenu();
+                parent.menuItemRemoved();
             }
         });
     }
 
     void removePrivate() {
+        isRemoved = true;
         callback = null;
         Gtk.gtk_menu_shell_deactivate(parent.getMenu(), menuItem);
 
         if (image != null) {
             Gtk.gtk_widget_destroy(image);
         }
+        releaseImage();
 
-        Gtk.gtk_widget_destroy(menuItem);
+        // this also removes it from the menu
+        GtkTypeSystemTray.destroyMenuItem(menuItem);
     }
 
     @Override
@@ -17,8 +17,10 @@ package dorkbox.systemTray.linux;
 
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
+import dorkbox.systemTray.ImageUtil;
 import dorkbox.systemTray.linux.jna.GEventCallback;
 import dorkbox.systemTray.linux.jna.GdkEventButton;
+import dorkbox.systemTray.linux.jna.GdkPixbuf;
 import dorkbox.systemTray.linux.jna.Gobject;
 import dorkbox.systemTray.linux.jna.Gtk;
 
@@ -43,6 +45,10 @@ class GtkSystemTray extends GtkTypeSystemTray {
 
     private volatile boolean isActive = false;
 
+    // the icon that is shown (and the shared pixbuf for it, if there is one). Only accessed on the dispatch thread
+    private String iconPath;
+    private String pixbufPath;
+
     public
     GtkSystemTray() {
         super();
@@ -62,8 +68,9 @@ class GtkSystemTray extends GtkTypeSystemTray {
                     public
                     void callback(Pointer notUsed, final GdkEventButton event) {
                         // BUTTON_PRESS only (any mouse click)
-                        if (event.type == 4) {
-                            Gtk.gtk_menu_popup(getMenu(), null, null, Gtk.gtk_status_icon_position_menu, trayIcon, 0, event.time);
+                        final Pointer menu = getMenu();
+                        if (event.type == 4 && menu != null) {
+                            Gtk.gtk_menu_popup(menu, null, null, Gtk.gtk_status_icon_position_menu, trayIcon, 0, event.time);
                         }
                     }
                 };
@@ -89,6 +96,8 @@ class GtkSystemTray extends GtkTypeSystemTray {
                     Gtk.gtk_status_icon_set_visible(trayIcon, false);
                     Gobject.g_object_unref(trayIcon);
 
+                    releaseIcon();
+
                     // mark for GC
                     trayIcon = null;
                     gtkCallbacks.clear();
@@ -99,6 +108,75 @@ class GtkSystemTray extends GtkTypeSystemTray {
         }
     }
 
+    /**
+     * called from inside dispatch thread
+     */
+    private
+    void releaseIcon() {
+        if (pixbufPath != null) {
+            GdkPixbuf.release(pixbufPath);
+            pixbufPath = null;
+        }
+        if (iconPath != null) {
+            ImageUtil.releaseIcon(iconPath);
+            iconPath = null;
+        }
+    }
+
+    private static final
+    class IconFrame {
+        // the path of the shared pixbuf (if the icon is in memory), otherwise the pixbuf belongs to the frame
+        final String pixbufPath;
+        final Pointer pixbuf;
+
+        IconFrame(final String pixbufPath, final Pointer pixbuf) {
+            this.pixbufPath = pixbufPath;
+            this.pixbuf = pixbuf;
+        }
+    }
+
+    @Override
+    protected
+    Object loadIconFrame(final String iconPath) {
+        final Pointer pixbuf = GdkPixbuf.acquire(iconPath);
+        if (pixbuf != null) {
+            return new IconFrame(iconPath, pixbuf);
+        }
+
+        return new IconFrame(null, GdkPixbuf.gdk_pixbuf_new_from_file(ImageUtil.iconFile(iconPath), null));
+    }
+
+    @Override
+    protected
+    void showIconFrame(final Object frame) {
+        final Pointer pixbuf = ((IconFrame) frame).pixbuf;
+        if (pixbuf == null) {
+            // the icon could not be loaded
+            return;
+        }
+
+        Gtk.gtk_status_icon_set_from_pixbuf(trayIcon, pixbuf);
+
+        if (!isActive) {
+            isActive = true;
+            Gtk.gtk_status_icon_set_visible(trayIcon, true);
+        }
+
+        iconShown();
+    }
+
+    @Override
+    protected
+    void releaseIconFrame(final Object frame) {
+        final IconFrame iconFrame = (IconFrame) frame;
+        if (iconFrame.pixbufPath != null) {
+            GdkPixbuf.release(iconFrame.pixbufPath);
+        }
+        else if (iconFrame.pixbuf != null) {
+            Gobject.g_object_unref(iconFrame.pixbuf);
+        }
+    }
+
     @Override
     protected
     void setIcon_(final String iconPath) {
@@ -106,12 +184,28 @@ class GtkSystemTray extends GtkTypeSystemTray {
             @Override
             public
             void run() {
-                Gtk.gtk_status_icon_set_from_file(trayIcon, iconPath);
+                ImageUtil.retainIcon(iconPath);
+
+                // icons that are only in memory do not have to be written to disk first
+                final Pointer pixbuf = GdkPixbuf.acquire(iconPath);
+                if (pixbuf != null) {
+                    Gtk.gtk_status_icon_set_from_pixbuf(trayIcon, pixbuf);
+                }
+                else {
+                    Gtk.gtk_status_icon_set_from_file(trayIcon, ImageUtil.iconFile(iconPath));
+                }
+
+                // the previous icon is no longer shown
+                releaseIcon();
+                GtkSystemTray.this.iconPath = iconPath;
+                GtkSystemTray.this.pixbufPath = pixbuf != null ? iconPath : null;
 
                 if (!isActive) {
                     isActive = true;
                     Gtk.gtk_status_icon_set_visible(trayIcon, true);
                 }
+
+                iconShown();
             }
         });
     }
@@ -18,13 +18,17 @@ package dorkbox.systemTray.linux;
 
 import com.sun.jna.Pointer;
 import dorkbox.systemTray.ImageUtil;
+import dorkbox.systemTray.MenuEntry;
 import dorkbox.systemTray.SystemTray;
 import dorkbox.systemTray.SystemTrayMenuAction;
 import dorkbox.systemTray.linux.jna.Gobject;
 import dorkbox.systemTray.linux.jna.Gtk;
+import dorkbox.util.Property;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Derived from
@@ -32,17 +36,123 @@ import java.net.URL;
  */
 public abstract
 class GtkTypeSystemTray extends SystemTray {
+    @Property
+    /**
+     * Some GTK libraries DO NOT let us add items AFTER the menu has been attached to the indicator. This destroys then recreates the
+     * menu every time something is changed, instead of inserting/removing the single item that changed.
+     */
+    public static boolean FORCE_MENU_REBUILD = false;
+
     private volatile Pointer menu;
+    // only accessed on the dispatch thread
+    private boolean isMenuAttached = false;
+    private boolean isMenuUpdateDeferred = false;
+    private boolean needsMenuRebuild = false;
+
+    @Property
+    /**
+     * The most times per second that the status text is changed. If the status is set more often, only the newest status is shown
+     * (it is always shown in the end). 0 for no limit (which is the default).
+     */
+    public static int STATUS_MAX_FREQUENCY = 0;
 
     private volatile Pointer connectionStatusItem;
     private volatile String statusText = null;
 
+    // true when the status is waiting to be applied, so that it is only dispatched once
+    private final AtomicBoolean isStatusScheduled = new AtomicBoolean(false);
+
+    // only accessed on the dispatch thread
+    private Pointer statusLabel;
+    private String appliedStatusText = null;
+    private boolean hasAppliedStatus = false;
+    private long lastStatusTime = 0L;
+
+    // the status can change faster than it is shown, so it is sampled (at most STATUS_MAX_FREQUENCY times per second)
+    private final Runnable statusUpdate = new Runnable() {
+        @Override
+        public
+        void run() {
+            final long now = System.nanoTime();
+
+            if (hasAppliedStatus && STATUS_MAX_FREQUENCY > 0) {
+                final long interval = TimeUnit.SECONDS.toNanos(1) / STATUS_MAX_FREQUENCY;
+                final long wait = lastStatusTime + interval - now;
+
+                if (wait > 0) {
+                    // too soon. Whatever the status is when we are called again is shown
+                    Gtk.dispatchAfter((int) Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wait)), this);
+                    return;
+                }
+            }
+
+            // anything set after this is dispatched again
+            isStatusScheduled.set(false);
+
+            hasAppliedStatus = true;
+            lastStatusTime = now;
+            applyStatus(statusText);
+        }
+    };
+
+    /**
+     * Shows the status text. The menu only changes when the status appears or disappears, otherwise the label is changed in place.
+     * MUST be called on the dispatch thread.
+     */
+    private
+    void applyStatus(final String statusText) {
+        final boolean hasStatus = statusText != null && !statusText.isEmpty();
+
+        if (hasStatus) {
+            if (connectionStatusItem == null) {
+                connectionStatusItem = Gtk.gtk_menu_item_new_with_label(statusText);
+
+                // bold is set once, and stays when the text is changed
+                statusLabel = Gtk.gtk_bin_get_child(connectionStatusItem);
+                Pointer attributes = Gtk.pango_attr_list_new();
+                Gtk.pango_attr_list_insert(attributes, Gtk.pango_attr_weight_new(Gtk.PANGO_WEIGHT_BOLD));
+                Gtk.gtk_label_set_attributes(statusLabel, attributes);
+                Gtk.pango_attr_list_unref(attributes);
+
+                Gtk.gtk_widget_set_sensitive(connectionStatusItem, Gtk.FALSE);
+
+                // the status is always the first entry in the menu
+                insertMenuItem(connectionStatusItem, 0);
+            }
+            else if (!statusText.equals(appliedStatusText)) {
+                // here we set the text only. it already exists
+                Gtk.gtk_label_set_text(statusLabel, statusText);
+            }
+
+            appliedStatusText = statusText;
+        }
+        else {
+            // this means the status text already exists, and we are removing it
+            if (connectionStatusItem != null) {
+                destroyMenuItem(connectionStatusItem);
+                connectionStatusItem = null;
+                statusLabel = null;
+
+                menuItemRemoved();
+            }
+
+            appliedStatusText = null;
+        }
+    }
+
     @Override
     protected
     void dispatch(final Runnable runnable) {
         Gtk.dispatch(runnable);
     }
 
+    @Override
+    protected
+    Runnable startTimer(final int intervalMillis, final Runnable tick) {
+        // GTK calls it directly, so nothing is queued (or allocated) for each tick
+        return Gtk.dispatchEvery(intervalMillis, tick);
+    }
+
     @Override
     public
     void shutdown() {
@@ -68,62 +178,97 @@ class GtkTypeSystemTray extends SystemTray {
     void setStatus(final String statusText) {
         this.statusText = statusText;
 
-        Gtk.dispatch(new Runnable() {
-            @Override
-            public
-            void run() {
-                // some GTK libraries DO NOT let us add items AFTER the menu has been attached to the indicator.
-                // To work around this issue, we destroy then recreate the menu every time something is changed.
-                if (connectionStatusItem == null && statusText != null && !statusText.isEmpty()) {
-                    deleteMenu();
+        if (isStatusScheduled.compareAndSet(false, true)) {
+            try {
+                Gtk.dispatch(statusUpdate);
+            } catch (RuntimeException e) {
+                // it was not dispatched (the dispatch queue is full), so the next status has to be dispatched again
+                isStatusScheduled.set(false);
+                throw e;
+            }
+        }
+    }
 
-                    connectionStatusItem = Gtk.gtk_menu_item_new_with_label("");
+    /**
+     * Inserts a single item into the live menu, leaving all of the other items as they are. MUST be called on the dispatch thread.
+     *
+     * @param menuItem the (floating) menu item to insert
+     * @param position the position in the menu, or -1 to append it to the end of the menu
+     */
+    void insertMenuItem(final Pointer menuItem, final int position) {
+        if (FORCE_MENU_REBUILD) {
+            // the new item is picked up (via the status item and menu entries) when the menu is recreated
+            rebuildMenu();
+            return;
+        }
 
-                    // evil hacks abound...
-                    Pointer label = Gtk.gtk_bin_get_child(connectionStatusItem);
-                    Gtk.gtk_label_set_use_markup(label, Gtk.TRUE);
-                    Pointer markup = Gobject.g_markup_printf_escaped("<b>%s</b>", statusText);
-                    Gtk.gtk_label_set_markup(label, markup);
-                    Gobject.g_free(markup);
+        if (menu == null) {
+            menu = Gtk.gtk_menu_new();
+        }
 
-                    Gtk.gtk_widget_set_sensitive(connectionStatusItem, Gtk.FALSE);
+        Gtk.gtk_menu_shell_insert(menu, menuItem, position);
+        // we keep our own reference, so that the item survives being removed from a menu (see deleteMenu)
+        Gobject.g_object_ref_sink(menuItem);
+        Gtk.gtk_widget_show_all(menuItem);
 
-                    createMenu();
-                }
-                else {
-                    if (statusText == null || statusText.isEmpty()) {
-                        // this means the status text already exists, and we are removing it
+        if (!isMenuAttached) {
+            // some implementations of appindicator, do NOT like having a menu added, which has no menu items yet.
+            // see: https://bugs.launchpad.net/glipper/+bug/1203888
+            isMenuAttached = true;
+            onMenuAdded(menu);
+        }
+    }
 
-                        Gtk.gtk_container_remove(menu, connectionStatusItem);
-                        connectionStatusItem = null; // because we manually delete it
+    /**
+     * Destroys a single item (which also removes it from the live menu) and releases our reference to it. MUST be called on the
+     * dispatch thread.
+     */
+    static
+    void destroyMenuItem(final Pointer menuItem) {
+        Gtk.gtk_widget_destroy(menuItem);
+        Gobject.g_object_unref(menuItem);
+    }
 
-                        Gtk.gtk_widget_show_all(menu);
+    /**
+     * Called after an item has been removed from the live menu. MUST be called on the dispatch thread.
+     */
+    void menuItemRemoved() {
+        if (FORCE_MENU_REBUILD) {
+            rebuildMenu();
+        }
+    }
 
-                        deleteMenu();
-                        createMenu();
-                    }
-                    else {
-                        // here we set the text only. it already exists
+    private
+    void rebuildMenu() {
+        if (isMenuUpdateDeferred) {
+            needsMenuRebuild = true;
+        }
+        else {
+            deleteMenu();
+            createMenu();
+        }
+    }
 
-                        // set bold instead
-                        // libgtk.gtk_menu_item_set_label(this.connectionStatusItem, statusText);
+    @Override
+    protected
+    void beginMenuUpdate() {
+        isMenuUpdateDeferred = true;
+    }
 
-                        // evil hacks abound...
-                        Pointer label = Gtk.gtk_bin_get_child(connectionStatusItem);
-                        Gtk.gtk_label_set_use_markup(label, Gtk.TRUE);
-                        Pointer markup = Gobject.g_markup_printf_escaped("<b>%s</b>", statusText);
-                        Gtk.gtk_label_set_markup(label, markup);
-                        Gobject.g_free(markup);
+    @Override
+    protected
+    void endMenuUpdate() {
+        isMenuUpdateDeferred = false;
 
-                        Gtk.gtk_widget_show_all(menu);
-                    }
-                }
-            }
-        });
+        if (needsMenuRebuild) {
+            needsMenuRebuild = false;
+            deleteMenu();
+            createMenu();
+        }
     }
 
     // some GTK libraries DO NOT let us add items AFTER the menu has been attached to the indicator.
-    // To work around this issue, we destroy then recreate the menu every time something is changed.
+    // To work around this issue (see FORCE_MENU_REBUILD), we destroy then recreate the menu every time something is changed.
     /**
      * Deletes the menu, and unreferences everything in it. ALSO recreates ONLY the menu object.
      */
@@ -131,8 +276,7 @@ class GtkTypeSystemTray extends SystemTray {
         if (menu != null) {
             // have to remove status from menu (but not destroy the object)
             if (connectionStatusItem != null) {
-                Gobject.g_object_force_floating(connectionStatusItem);
-                Gtk.gtk_container_remove(menu, connectionStatusItem);
+                detachMenuItem(connectionStatusItem);
             }
 
             // have to remove all other menu entries
@@ -140,8 +284,7 @@ class GtkTypeSystemTray extends SystemTray {
                 for (int i = 0; i < menuEntries.size(); i++) {
                     GtkMenuEntry menuEntry__ = (GtkMenuEntry) menuEntries.get(i);
 
-                    Gobject.g_object_force_floating(menuEntry__.menuItem);
-                    Gtk.gtk_container_remove(menu, menuEntry__.menuItem);
+                    detachMenuItem(menuEntry__.menuItem);
                 }
 
                 Gtk.gtk_widget_destroy(menu);
@@ -150,10 +293,22 @@ class GtkTypeSystemTray extends SystemTray {
 
         // makes a new one
         menu = Gtk.gtk_menu_new();
+        isMenuAttached = false;
+    }
+
+    /**
+     * Removes an item from the menu (but does not destroy it). Items that were created after the menu was built are not in it yet.
+     */
+    private
+    void detachMenuItem(final Pointer menuItem) {
+        if (menu.equals(Gtk.gtk_widget_get_parent(menuItem))) {
+            Gobject.g_object_force_floating(menuItem);
+            Gtk.gtk_container_remove(menu, menuItem);
+        }
     }
 
     // some GTK libraries DO NOT let us add items AFTER the menu has been attached to the indicator.
-    // To work around this issue, we destroy then recreate the menu every time something is changed.
+    // To work around this issue (see FORCE_MENU_REBUILD), we destroy then recreate the menu every time something is changed.
     void createMenu() {
         // now add status
         if (connectionStatusItem != null) {
@@ -171,6 +326,7 @@ class GtkTypeSystemTray extends SystemTray {
                 Gobject.g_object_ref_sink(menuEntry__.menuItem);
             }
 
+            isMenuAttached = true;
             onMenuAdded(menu);
             Gtk.gtk_widget_show_all(menu);
         }
@@ -184,8 +340,10 @@ class GtkTypeSystemTray extends SystemTray {
         if (menu != null) {
             // have to remove status from menu
             if (connectionStatusItem != null) {
-                Gtk.gtk_widget_destroy(connectionStatusItem);
+                destroyMenuItem(connectionStatusItem);
                 connectionStatusItem = null;
+                statusLabel = null;
+                appliedStatusText = null;
             }
 
             // have to remove all other menu entries
@@ -195,7 +353,7 @@ class GtkTypeSystemTray extends SystemTray {
 
                     menuEntry__.removePrivate();
                 }
-                menuEntries.clear();
+                clearMenuEntries();
 
                 Gtk.gtk_widget_destroy(menu);
             }
@@ -203,21 +361,35 @@ class GtkTypeSystemTray extends SystemTray {
     }
 
     /**
-     * Called inside the gdk_threads block
+     * Called on the dispatch thread when the text of a menu entry has changed
+     */
+    void menuEntryTextChanged(final GtkMenuEntry menuEntry, final String oldText) {
+        updateMenuEntryIndex(menuEntry, oldText);
+    }
+
+    @Override
+    protected
+    void setMenuEntryText_(final MenuEntry menuEntry, final String newText) {
+        ((GtkMenuEntry) menuEntry).setText_(newText);
+    }
+
+    /**
+     * Called inside the gdk_threads block, when the menu has items and has not been attached (or was recreated).
      */
     protected
     void onMenuAdded(final Pointer menu) {}
 
+    /**
+     * @return the menu, or null if nothing has been added to the menu yet
+     */
     protected
     Pointer getMenu() {
         return menu;
     }
 
-    private
+    @Override
+    protected
     void addMenuEntry_(final String menuText, final String imagePath, final SystemTrayMenuAction callback) {
-        // some implementations of appindicator, do NOT like having a menu added, which has no menu items yet.
-        // see: https://bugs.launchpad.net/glipper/+bug/1203888
-
         if (menuText == null) {
             throw new NullPointerException("Menu text cannot be null");
         }
@@ -230,14 +402,10 @@ class GtkTypeSystemTray extends SystemTray {
                     GtkMenuEntry menuEntry = (GtkMenuEntry) getMenuEntry(menuText);
 
                     if (menuEntry == null) {
-                        // some GTK libraries DO NOT let us add items AFTER the menu has been attached to the indicator.
-                        // To work around this issue, we destroy then recreate the menu every time something is changed.
-                        deleteMenu();
-
                         menuEntry = new GtkMenuEntry(menuText, imagePath, callback, GtkTypeSystemTray.this);
-                        menuEntries.add(menuEntry);
+                        putMenuEntry(menuEntry);
 
-                        createMenu();
+                        insertMenuItem(menuEntry.menuItem, -1);
                     }
                 }
             }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.linux;
+
+import dorkbox.systemTray.StartupTimeline;
+import dorkbox.systemTray.SystemTray;
+import dorkbox.util.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks through the running processes (via /proc/[pid]/comm) for a process by name. This is the ONLY guaranteed way to determine if a
+ * service (for example, the indicator-application-service) is running.
+ * <p>
+ * The name of every process is read into the same buffer, and the scan stops at the first match.
+ */
+public
+class ProcessScanner {
+    @Property
+    /**
+     * The longest time (in milliseconds) to spend looking through the running processes, before giving up. 0 for no limit.
+     */
+    public static int TIME_BUDGET = 500;
+
+    // the same logger as SystemTray (which is not visible to this package)
+    private static final Logger logger = LoggerFactory.getLogger(SystemTray.class);
+
+    // the kernel limits the process name (comm) to 15 characters, and the file has a newline after it
+    private static final int MAX_NAME_LENGTH = 16;
+
+    /**
+     * Starts looking for the process on a new thread, so that it can run at the same time as other work.
+     *
+     * @param namePrefix the start of the process name. Process names are cut off after 15 characters.
+     *
+     * @return the task, which has the result 'true' if the process is running
+     */
+    public static
+    FutureTask<Boolean> start(final String namePrefix) {
+        final FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public
+            Boolean call() throws Exception {
+                final long startTime = System.nanoTime();
+                try {
+                    return isRunning(namePrefix);
+                } finally {
+                    SystemTray.getStartupTimeline().record(StartupTimeline.PROCESS_SCAN, startTime);
+                }
+            }
+        });
+
+        final Thread thread = new Thread(task, "SystemTray Process Scanner");
+        thread.setDaemon(true);
+        thread.start();
+
+        return task;
+    }
+
+    /**
+     * @param namePrefix the start of the process name. Process names are cut off after 15 characters.
+     *
+     * @return true if a process which name starts with namePrefix is running. False if not, or if it could not be found within the
+     *         {@link #TIME_BUDGET}
+     */
+    public static
+    boolean isRunning(final String namePrefix) {
+        final String[] pids = new File("/proc").list();
+        if (pids == null) {
+            return false;
+        }
+
+        final byte[] name = namePrefix.getBytes(Charset.forName("US-ASCII"));
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_NAME_LENGTH);
+        final StringBuilder path = new StringBuilder(32);
+
+        final long timeBudget = TimeUnit.MILLISECONDS.toNanos(TIME_BUDGET);
+        final long startTime = System.nanoTime();
+
+        for (String pid : pids) {
+            if (!Character.isDigit(pid.charAt(0))) {
+                continue;
+            }
+
+            if (timeBudget > 0 && System.nanoTime() - startTime > timeBudget) {
+                logger.warn("Unable to look through all of the processes within {}ms, assuming that '{}' is not running",
+                            TIME_BUDGET, namePrefix);
+                return false;
+            }
+
+            path.setLength(0);
+            path.append("/proc/").append(pid).append("/comm");
+
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(Paths.get(path.toString()), StandardOpenOption.READ);
+
+                buffer.clear();
+                channel.read(buffer);
+                buffer.flip();
+
+                if (startsWith(buffer, name)) {
+                    return true;
+                }
+            } catch (IOException ignored) {
+                // the process has exited, or we are not allowed to see it
+            } finally {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static
+    boolean startsWith(final ByteBuffer buffer, final byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.linux;
+
+import dorkbox.systemTray.SystemTray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Remembers which tray type (and which GTK/AppIndicator libraries) were detected on linux, so that the next start does not have to
+ * detect them again (detection runs programs and looks through every process).
+ *
+ * What was detected is only used if nothing that the detection depends on has changed: the desktop environment variables, the
+ * gnome-shell program, our gnome-shell extension (and its version), the libraries that were loaded, and the settings that change the
+ * detection. Installing (or checking) our gnome-shell extension is not skipped.
+ */
+public final
+class TrayDetectionCache {
+    // change this if what is saved (or how it is checked) changes
+    private static final String VERSION = "2";
+
+    private static final String KEY = "key";
+    private static final String TRAY_TYPE = "trayType";
+    private static final String IS_KDE = "isKDE";
+    private static final String GNOME_SHELL_EXTENSION = "gnomeShellExtension";
+    private static final String GTK_LIBRARY = "gtk.library";
+    private static final String GTK_FILE = "gtk.file";
+    private static final String GTK_MODIFIED = "gtk.modified";
+    private static final String APP_INDICATOR_LIBRARY = "appIndicator.library";
+    private static final String APP_INDICATOR_FILE = "appIndicator.file";
+    private static final String APP_INDICATOR_MODIFIED = "appIndicator.modified";
+    private static final String APP_INDICATOR_VERSION_3 = "appIndicator.isVersion3";
+
+    // what was detected by a previous run (null if nothing, or if it is no longer valid)
+    private static Properties cached = null;
+
+    // the libraries that were loaded by this run
+    private static String gtkLibrary = null;
+    private static File gtkFile = null;
+    private static String appIndicatorLibrary = null;
+    private static File appIndicatorFile = null;
+    private static boolean isAppIndicatorVersion3 = false;
+
+    private
+    TrayDetectionCache() {
+    }
+
+    /**
+     * Loads what was detected by a previous run. This must happen before the GTK/AppIndicator libraries are loaded.
+     */
+    public static synchronized
+    void load() {
+        cached = null;
+
+        final File file = getFile();
+        if (!file.canRead()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            if (SystemTray.DEBUG) {
+                e.printStackTrace();
+            }
+            return;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        if (!makeKey().equals(properties.getProperty(KEY)) ||
+            !isUnchanged(properties.getProperty(GTK_FILE), properties.getProperty(GTK_MODIFIED)) ||
+            !isUnchanged(properties.getProperty(APP_INDICATOR_FILE), properties.getProperty(APP_INDICATOR_MODIFIED))) {
+            return;
+        }
+
+        cached = properties;
+    }
+
+    /**
+     * Saves what was detected by this run, for the next run.
+     */
+    public static synchronized
+    void save(final Class<? extends SystemTray> trayType, final boolean isKDE, final boolean usesGnomeShellExtension) {
+        final Properties properties = new Properties();
+        properties.setProperty(KEY, makeKey());
+        properties.setProperty(TRAY_TYPE, trayType.getName());
+        properties.setProperty(IS_KDE, Boolean.toString(isKDE));
+        properties.setProperty(GNOME_SHELL_EXTENSION, Boolean.toString(usesGnomeShellExtension));
+
+        if (gtkLibrary != null) {
+            properties.setProperty(GTK_LIBRARY, gtkLibrary);
+            setFile(properties, GTK_FILE, GTK_MODIFIED, gtkFile);
+        }
+        if (appIndicatorLibrary != null) {
+            properties.setProperty(APP_INDICATOR_LIBRARY, appIndicatorLibrary);
+            properties.setProperty(APP_INDICATOR_VERSION_3, Boolean.toString(isAppIndicatorVersion3));
+            setFile(properties, APP_INDICATOR_FILE, APP_INDICATOR_MODIFIED, appIndicatorFile);
+        }
+
+        if (properties.equals(cached)) {
+            // nothing changed
+            return;
+        }
+
+        final File file = getFile();
+        final File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            return;
+        }
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            properties.store(outputStream, "SystemTray detection cache. It is safe to delete this file.");
+        } catch (IOException e) {
+            if (SystemTray.DEBUG) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tray type that was detected by a previous run, or null if it has to be detected
+     */
+    public static synchronized
+    Class<? extends SystemTray> getTrayType() {
+        if (cached == null) {
+            return null;
+        }
+
+        final String trayType = cached.getProperty(TRAY_TYPE);
+        if (GtkSystemTray.class.getName().equals(trayType)) {
+            return GtkSystemTray.class;
+        }
+        if (AppIndicatorTray.class.getName().equals(trayType)) {
+            return AppIndicatorTray.class;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if a previous run detected KDE
+     */
+    public static synchronized
+    boolean isKDE() {
+        return cached != null && Boolean.parseBoolean(cached.getProperty(IS_KDE));
+    }
+
+    /**
+     * @return true if the tray icon was shown by our gnome-shell extension in a previous run. The extension is not part of what is
+     * remembered, it must still be checked (and installed) every time.
+     */
+    public static synchronized
+    boolean usesGnomeShellExtension() {
+        return cached != null && Boolean.parseBoolean(cached.getProperty(GNOME_SHELL_EXTENSION));
+    }
+
+    /**
+     * @return the name of the GTK library that was loaded by a previous run, or null if it has to be found
+     */
+    public static synchronized
+    String getGtkLibrary() {
+        return cached == null ? null : cached.getProperty(GTK_LIBRARY);
+    }
+
+    /**
+     * @return the name of the AppIndicator library that was loaded by a previous run, or null if it has to be found
+     */
+    public static synchronized
+    String getAppIndicatorLibrary() {
+        return cached == null ? null : cached.getProperty(APP_INDICATOR_LIBRARY);
+    }
+
+    /**
+     * @return true if the AppIndicator library that was loaded by a previous run is version 3
+     */
+    public static synchronized
+    boolean isAppIndicatorVersion3() {
+        return cached != null && Boolean.parseBoolean(cached.getProperty(APP_INDICATOR_VERSION_3));
+    }
+
+    /**
+     * Called when the GTK library has been loaded
+     *
+     * @param libraryName the name the library was loaded with
+     * @param file the library file, or null if unknown
+     */
+    public static synchronized
+    void setGtkLibrary(final String libraryName, final File file) {
+        gtkLibrary = libraryName;
+        gtkFile = file;
+    }
+
+    /**
+     * Called when the AppIndicator library has been loaded
+     *
+     * @param libraryName the name the library was loaded with
+     * @param file the library file, or null if unknown
+     */
+    public static synchronized
+    void setAppIndicatorLibrary(final String libraryName, final File file, final boolean isVersion3) {
+        appIndicatorLibrary = libraryName;
+        appIndicatorFile = file;
+        isAppIndicatorVersion3 = isVersion3;
+    }
+
+    private static
+    File getFile() {
+        String cacheDir = System.getenv("XDG_CACHE_HOME");
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            cacheDir = System.getProperty("user.home") + "/.cache";
+        }
+
+        return new File(cacheDir, "SystemTray/detection.properties");
+    }
+
+    /**
+     * @return everything that the detection depends on (except for the libraries, which are checked separately).
+     */
+    private static
+    String makeKey() {
+        final File extensionMetadata = new File(System.getProperty("user.home") + "/.local/share/gnome-shell/extensions/" +
+                                                GnomeShellExtension.UID, "metadata.json");
+
+        final StringBuilder builder = new StringBuilder(256);
+        builder.append(VERSION)
+               .append('|').append(System.getenv("XDG_CURRENT_DESKTOP"))
+               .append('|').append(System.getenv("GDMSESSION"))
+               .append('|').append(System.getenv("DESKTOP_SESSION"))
+               .append('|').append(SystemTray.FORCE_GTK2)
+               .append('|').append(SystemTray.COMPATIBILITY_MODE)
+               // the version of gnome-shell changes when the program does
+               .append('|').append(lastModified(findExecutable("gnome-shell")))
+               .append('|').append(lastModified(extensionMetadata))
+               // a different version of our extension has to be installed
+               .append('|').append(GnomeShellExtension.EXTENSION_VERSION);
+
+        return builder.toString();
+    }
+
+    /**
+     * @return the file for the program (found via the PATH), or null if it isn't there
+     */
+    private static
+    File findExecutable(final String name) {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+
+        for (String dir : path.split(File.pathSeparator)) {
+            if (dir.isEmpty()) {
+                continue;
+            }
+
+            final File file = new File(dir, name);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    private static
+    long lastModified(final File file) {
+        if (file == null) {
+            return 0L;
+        }
+        return file.lastModified();
+    }
+
+    private static
+    void setFile(final Properties properties, final String fileKey, final String modifiedKey, final File file) {
+        if (file != null) {
+            properties.setProperty(fileKey, file.getAbsolutePath());
+            properties.setProperty(modifiedKey, Long.toString(file.lastModified()));
+        }
+    }
+
+    /**
+     * @return true if there is no file, or the file has not been modified
+     */
+    private static
+    boolean isUnchanged(final String fileName, final String modified) {
+        if (fileName == null) {
+            return true;
+        }
+
+        return Long.toString(new File(fileName).lastModified()).equals(modified);
+    }
+}
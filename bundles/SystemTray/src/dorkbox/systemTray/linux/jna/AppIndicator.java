@@ -18,6 +18,8 @@ package dorkbox.systemTray.linux.jna;
 import com.sun.jna.NativeLibrary;
 import com.sun.jna.Pointer;
 import dorkbox.systemTray.SystemTray;
+import dorkbox.systemTray.linux.TrayDetectionCache;
+import dorkbox.util.jna.JnaHelper;
 
 /**
  * bindings for libappindicator
@@ -31,6 +33,10 @@ class AppIndicator {
 
     private static boolean isLoaded = false;
 
+    // the library that was loaded (these are assigned while loading, so they must not have an initializer)
+    private static String libraryName;
+    private static NativeLibrary library;
+
     /**
      * Loader for AppIndicator, because it is absolutely mindboggling how those whom maintain the standard, can't agree to what that
      * standard library naming convention or features/API set is. We just try until we find one that work, and are able to map the
@@ -52,10 +58,21 @@ class AppIndicator {
             isLoaded = true;
         }
 
+        // if nothing has changed since the last time, the same library is used again
+        final String cachedLibraryName = TrayDetectionCache.getAppIndicatorLibrary();
+        if (!isLoaded && cachedLibraryName != null) {
+            try {
+                register(cachedLibraryName, AppIndicator.class);
+                isVersion3 = TrayDetectionCache.isAppIndicatorVersion3();
+                isLoaded = true;
+            } catch (Throwable ignored) {
+            }
+        }
+
         if (!isLoaded && (SystemTray.FORCE_GTK2 || SystemTray.COMPATIBILITY_MODE)) {
             // if specified, try loading appindicator1 first, maybe it's there?
             try {
-                final NativeLibrary library = JnaHelper.register("appindicator1", AppIndicator.class);
+                final NativeLibrary library = register("appindicator1", AppIndicator.class);
                 if (library != null) {
                     isLoaded = true;
                 }
@@ -75,7 +92,7 @@ class AppIndicator {
         // start with base version using whatever the OS specifies as the proper symbolic link
         if (!isLoaded) {
             try {
-                final NativeLibrary library = JnaHelper.register(nameToCheck1, AppIndicator.class);
+                final NativeLibrary library = register(nameToCheck1, AppIndicator.class);
                 String s = library.getName();
                 if (s.contains("appindicator3")) {
                     isVersion3 = true;
@@ -94,7 +111,7 @@ class AppIndicator {
                 for (int i = 0; i <= 10; i++) {
                     if (!isLoaded) {
                         try {
-                            final NativeLibrary library = JnaHelper.register("appindicator" + i, AppIndicator.class);
+                            final NativeLibrary library = register("appindicator" + i, AppIndicator.class);
 
                             String s = library.getName();
                             // version 3 WILL NOT work with icons in the menu. This allows us to show a warning (in the System tray initialization)
@@ -114,7 +131,7 @@ class AppIndicator {
                 for (int i = 10; i >= 0; i--) {
                     if (!isLoaded) {
                         try {
-                            final NativeLibrary library = JnaHelper.register("appindicator" + i, AppIndicator.class);
+                            final NativeLibrary library = register("appindicator" + i, AppIndicator.class);
 
                             String s = library.getName();
                             // version 3 WILL NOT work with icons in the menu. This allows us to show a warning (in the System tray initialization)
@@ -147,7 +164,7 @@ class AppIndicator {
         // another type. who knows...
         if (!isLoaded) {
             try {
-                JnaHelper.register(nameToCheck1, AppIndicator.class);
+                register(nameToCheck1, AppIndicator.class);
                 isLoaded = true;
             } catch (Throwable ignored) {
             }
@@ -156,7 +173,7 @@ class AppIndicator {
         // this is HORRID. such a PITA
         if (!isLoaded) {
             try {
-                JnaHelper.register(nameToCheck2, AppIndicator.class);
+                register(nameToCheck2, AppIndicator.class);
                 isLoaded = true;
             } catch (Throwable ignored) {
             }
@@ -166,6 +183,24 @@ class AppIndicator {
             throw new RuntimeException("We apologize for this, but we are unable to determine which the appIndicator library is in use, if " +
                                        "or even if it is in use... Please create an issue for this and include your OS type and configuration.");
         }
+
+        if (library != null) {
+            TrayDetectionCache.setAppIndicatorLibrary(libraryName, library.getFile(), isVersion3);
+        }
+    }
+
+    private static
+    NativeLibrary register(final String libraryName, final Class<?> clazz) {
+        if (!LibraryProbe.shouldTryAppIndicator(libraryName)) {
+            // don't even try to load a library that doesn't exist
+            throw new IllegalArgumentException(libraryName + " doesn't exist.");
+        }
+
+        final NativeLibrary library = JnaHelper.register(libraryName, clazz);
+
+        AppIndicator.libraryName = libraryName;
+        AppIndicator.library = library;
+        return library;
     }
 
     // Note: AppIndicators DO NOT support tooltips, as per mark shuttleworth. Rather stupid IMHO.
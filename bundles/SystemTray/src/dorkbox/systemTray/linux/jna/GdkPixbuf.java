@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.linux.jna;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import dorkbox.systemTray.ImageUtil;
+import dorkbox.util.jna.JnaHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * bindings for libgdk_pixbuf-2.0 (this is the same for gtk 2 and 3)
+ *
+ * Direct-mapping, See: https://github.com/java-native-access/jna/blob/master/www/DirectMapping.md
+ */
+public
+class GdkPixbuf {
+    static {
+        JnaHelper.register("gdk_pixbuf-2.0", GdkPixbuf.class);
+    }
+
+    private static final
+    class CachedPixbuf {
+        final Pointer pixbuf;
+        int references = 0;
+
+        CachedPixbuf(final Pointer pixbuf) {
+            this.pixbuf = pixbuf;
+        }
+    }
+
+    // the pixbufs that are being shown, by icon path. Icon paths are a hash of the icon contents, so identical icons are only decoded
+    // once. Only accessed on the dispatch thread.
+    private static final Map<String, CachedPixbuf> pixbufs = new HashMap<String, CachedPixbuf>();
+
+    /**
+     * Must be called on the dispatch thread. Gets the (shared) pixbuf for an icon that is in memory, decoding it if necessary. Every
+     * pixbuf that is returned must have a matching {@link #release(String)}.
+     *
+     * @param iconPath the path of the icon, from one of the ImageUtil.iconPath() methods
+     *
+     * @return the pixbuf, or null if the icon is not in memory (or could not be decoded)
+     */
+    public static
+    Pointer acquire(final String iconPath) {
+        CachedPixbuf cached = pixbufs.get(iconPath);
+        if (cached == null) {
+            final byte[] bytes = ImageUtil.iconBytes(iconPath);
+            if (bytes == null) {
+                return null;
+            }
+
+            final Pointer pixbuf = newPixbuf(bytes);
+            if (pixbuf == null) {
+                return null;
+            }
+
+            cached = new CachedPixbuf(pixbuf);
+            pixbufs.put(iconPath, cached);
+        }
+
+        cached.references++;
+        return cached.pixbuf;
+    }
+
+    /**
+     * Must be called on the dispatch thread. The pixbuf is unreferenced once nothing is using it (GTK keeps its own references to the
+     * pixbufs that it is showing).
+     *
+     * @param iconPath the path of the icon, from one of the ImageUtil.iconPath() methods
+     */
+    public static
+    void release(final String iconPath) {
+        final CachedPixbuf cached = pixbufs.get(iconPath);
+        if (cached != null && --cached.references == 0) {
+            pixbufs.remove(iconPath);
+            Gobject.g_object_unref(cached.pixbuf);
+        }
+    }
+
+    /**
+     * Decodes an image (png, jpg, etc) from memory, so it doesn't have to be loaded from a file.
+     *
+     * @param bytes the bytes of the image file
+     *
+     * @return a new pixbuf (which must be unreferenced), or null if the image could not be decoded
+     */
+    public static
+    Pointer newPixbuf(final byte[] bytes) {
+        final Pointer loader = gdk_pixbuf_loader_new();
+
+        try {
+            final boolean wrote = gdk_pixbuf_loader_write(loader, bytes, new NativeLong(bytes.length), null);
+
+            // must always be closed before it is unreferenced
+            final boolean closed = gdk_pixbuf_loader_close(loader, null);
+
+            if (wrote && closed) {
+                final Pointer pixbuf = gdk_pixbuf_loader_get_pixbuf(loader);
+                if (pixbuf != null) {
+                    // the loader owns the pixbuf, so we want our own reference before the loader is unreferenced
+                    Gobject.g_object_ref(pixbuf);
+                }
+                return pixbuf;
+            }
+
+            return null;
+        } finally {
+            Gobject.g_object_unref(loader);
+        }
+    }
+
+    /**
+     * Decodes an image (png, jpg, etc) from a file.
+     *
+     * @return a new pixbuf (which must be unreferenced), or null if the image could not be loaded
+     */
+    public static native Pointer gdk_pixbuf_new_from_file(String filename, Pointer error);
+
+    private static native Pointer gdk_pixbuf_loader_new();
+
+    /**
+     * The last argument is a GError**, we pass null to ignore errors (the return value is all we care about)
+     */
+    private static native boolean gdk_pixbuf_loader_write(Pointer loader, byte[] buf, NativeLong count, Pointer error);
+
+    private static native boolean gdk_pixbuf_loader_close(Pointer loader, Pointer error);
+
+    private static native Pointer gdk_pixbuf_loader_get_pixbuf(Pointer loader);
+}
@@ -18,6 +18,7 @@ package dorkbox.systemTray.linux.jna;
 import com.sun.jna.Callback;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
+import dorkbox.util.jna.JnaHelper;
 
 /**
  * bindings for libgobject-2.0
@@ -32,6 +33,7 @@ class Gobject {
     }
 
     public static native void g_free(Pointer object);
+    public static native Pointer g_object_ref(Pointer object);
     public static native void g_object_unref(Pointer object);
 
     public static native void g_object_force_floating(Pointer object);
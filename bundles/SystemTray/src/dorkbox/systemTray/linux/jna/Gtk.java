@@ -16,11 +16,13 @@
 package dorkbox.systemTray.linux.jna;
 
 import com.sun.jna.Function;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.Pointer;
+import dorkbox.systemTray.StartupTimeline;
 import dorkbox.systemTray.SystemTray;
-
-import java.util.LinkedList;
-import java.util.concurrent.CountDownLatch;
+import dorkbox.systemTray.linux.TrayDetectionCache;
+import dorkbox.util.jna.JnaHelper;
+import dorkbox.util.jna.linux.GtkEventLoop;
 
 /**
  * bindings for gtk 2 or 3
@@ -38,10 +40,8 @@ class Gtk {
     // NOTE: AppIndicator uses this info to figure out WHAT VERSION OF appindicator to use: GTK2 -> appindiactor1, GTK3 -> appindicator3
     public static volatile boolean isGtk2 = false;
 
-
     public static Function gtk_status_icon_position_menu = null;
 
-    private static boolean alreadyRunningGTK = false;
     private static boolean isLoaded = false;
 
 
@@ -57,20 +57,32 @@ class Gtk {
     // objdump -T /usr/lib/x86_64-linux-gnu/libgtk-3.so.0 | grep gtk
     static {
         boolean shouldUseGtk2 = SystemTray.FORCE_GTK2 || SystemTray.COMPATIBILITY_MODE;
+        String libraryName = null;
+        NativeLibrary library = null;
+
+        // if nothing has changed since the last time, the same library is used again
+        final String cachedLibraryName = TrayDetectionCache.getGtkLibrary();
+        if (cachedLibraryName != null && LibraryProbe.shouldTryGtk(cachedLibraryName)) {
+            try {
+                library = JnaHelper.register(cachedLibraryName, Gtk.class);
+                libraryName = cachedLibraryName;
+                gtk_status_icon_position_menu = Function.getFunction(cachedLibraryName, "gtk_status_icon_position_menu");
+                isGtk2 = cachedLibraryName.equals("gtk-x11-2.0");
+                isLoaded = true;
+            } catch (Throwable ignored) {
+            }
+        }
 
         // for more info on JavaFX: https://docs.oracle.com/javafx/2/system_requirements_2-2-3/jfxpub-system_requirements_2-2-3.htm
         // from the page: JavaFX 2.2.3 for Linux requires gtk2 2.18+.
 
         // in some cases, we ALWAYS want to try GTK2 first
-        if (shouldUseGtk2) {
+        if (!isLoaded && shouldUseGtk2 && LibraryProbe.shouldTryGtk("gtk-x11-2.0")) {
             try {
-                JnaHelper.register("gtk-x11-2.0", Gtk.class);
+                library = JnaHelper.register("gtk-x11-2.0", Gtk.class);
+                libraryName = "gtk-x11-2.0";
                 gtk_status_icon_position_menu = Function.getFunction("gtk-x11-2.0", "gtk_status_icon_position_menu");
                 isGtk2 = true;
-
-                // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                alreadyRunningGTK = gtk_main_level() != 0;
                 isLoaded = true;
             } catch (Throwable ignored) {
             }
@@ -79,28 +91,23 @@ class Gtk {
         // now for the defaults...
 
         // start with version 3
-        if (!isLoaded) {
+        if (!isLoaded && LibraryProbe.shouldTryGtk("libgtk-3.so.0")) {
             try {
-                JnaHelper.register("libgtk-3.so.0", Gtk.class);
+                library = JnaHelper.register("libgtk-3.so.0", Gtk.class);
+                libraryName = "libgtk-3.so.0";
                 gtk_status_icon_position_menu = Function.getFunction("libgtk-3.so.0", "gtk_status_icon_position_menu");
-                // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                alreadyRunningGTK = gtk_main_level() != 0;
                 isLoaded = true;
             } catch (Throwable ignored) {
             }
         }
 
         // now version 2
-        if (!isLoaded) {
+        if (!isLoaded && LibraryProbe.shouldTryGtk("gtk-x11-2.0")) {
             try {
-                JnaHelper.register("gtk-x11-2.0", Gtk.class);
+                library = JnaHelper.register("gtk-x11-2.0", Gtk.class);
+                libraryName = "gtk-x11-2.0";
                 gtk_status_icon_position_menu = Function.getFunction("gtk-x11-2.0", "gtk_status_icon_position_menu");
                 isGtk2 = true;
-
-                // when running inside of JavaFX, this will be '1'. All other times this should be '0'
-                // when it's '1', it means that someone else has stared GTK -- so we DO NOT NEED TO.
-                alreadyRunningGTK = gtk_main_level() != 0;
                 isLoaded = true;
             } catch (Throwable ignored) {
             }
@@ -109,148 +116,71 @@ class Gtk {
             throw new RuntimeException("We apologize for this, but we are unable to determine the GTK library is in use, " +
                                        "or even if it is in use... Please create an issue for this and include your OS type and configuration.");
         }
-    }
-
-    private static volatile boolean started = false;
 
-    // have to save these in a field to prevent GC on the objects (since they go out-of-scope from java)
-    private static final LinkedList<Object> gtkCallbacks = new LinkedList<Object>();
+        TrayDetectionCache.setGtkLibrary(libraryName, library.getFile());
 
-    private static Thread gtkUpdateThread = null;
+        // there is only one GTK event loop, which is shared with anything else that uses GTK
+        if (!GtkEventLoop.init(library)) {
+            throw new RuntimeException("A different version of GTK has already been loaded, and both cannot be used at the same time.");
+        }
+    }
 
     public static final int FALSE = 0;
     public static final int TRUE = 1;
 
 
+    /**
+     * Starts the (shared) GTK event loop, if it isn't already running.
+     */
     public static
     void startGui() {
-        // only permit one startup per JVM instance
-        if (!started) {
-            started = true;
-
-            // startup the GTK GUI event loop. There can be multiple/nested loops.
-
-            // If JavaFX/SWT is used, this is UNNECESSARY
-            if (!alreadyRunningGTK) {
-                // only necessary if we are the only GTK instance running...
-                final CountDownLatch blockUntilStarted = new CountDownLatch(1);
-
-                gtkUpdateThread = new Thread() {
-                    @Override
-                    public
-                    void run() {
-                        // prep for the event loop.
-                        gdk_threads_init();
-                        gdk_threads_enter();
-
-                        GThread.g_thread_init(null);
-
-                        if (!SystemTray.COMPATIBILITY_MODE) {
-                            gtk_init_check(0);
-                        }
-
-                        // notify our main thread to continue
-                        blockUntilStarted.countDown();
-
-                        if (!SystemTray.COMPATIBILITY_MODE) {
-                            // blocks unit quit
-                            gtk_main();
-                        }
-
-                        gdk_threads_leave();
-                    }
-                };
-                gtkUpdateThread.setName("GTK Native Event Loop");
-                gtkUpdateThread.start();
-
-                try {
-                    // we CANNOT continue until the GTK thread has started!
-                    blockUntilStarted.await();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        final long startTime = System.nanoTime();
+
+        if (GtkEventLoop.start(SystemTray.COMPATIBILITY_MODE)) {
+            SystemTray.getStartupTimeline().record(StartupTimeline.GTK_START, startTime);
         }
     }
 
     /**
      * Best practices for GTK, is to call EVERYTHING for it on the GTK THREAD. This accomplishes that.
+     * <p>
+     * If the dispatch queue is full (see {@link GtkEventLoop#QUEUE_CAPACITY}), this waits for room, or fails, depending on
+     * {@link GtkEventLoop#OVERFLOW_POLICY}. It no longer queues the event past the capacity.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the dispatch queue is full. The runnable will not run.
      */
     public static
     void dispatch(final Runnable runnable) {
-        if (gtkUpdateThread == Thread.currentThread()) {
-            // if we are ALREADY inside the native event
-            runnable.run();
-        } else {
-            final FuncCallback callback = new FuncCallback() {
-                @Override
-                public
-                int callback(final Pointer data) {
-                    synchronized (gtkCallbacks) {
-                        gtkCallbacks.removeFirst(); // now that we've 'handled' it, we can remove it from our callback list
-                    }
-                    runnable.run();
-
-                    return Gtk.FALSE; // don't want to call this again
-                }
-            };
-
-            synchronized (gtkCallbacks) {
-                gtkCallbacks.offer(callback); // prevent GC from collecting this object before it can be called
-            }
-            gdk_threads_add_idle(callback, null);
-        }
-    }
-
-    public static
-    void shutdownGui() {
-        // If JavaFX/SWT is used, this is UNNECESSARY (and will break SWT/JavaFX shutdown)
-        if (!(alreadyRunningGTK || SystemTray.COMPATIBILITY_MODE)) {
-            gtk_main_quit();
-        }
-
-        started = false;
+        GtkEventLoop.dispatch(runnable);
     }
 
-
-
-    /**
-     * This would NORMALLY have a 2nd argument that is a String[] -- however JNA direct-mapping DOES NOT support this. We are lucky
-     * enough that we just pass 'null' as the second argument, therefore, we don't have to define that parameter here.
-     */
-    private static native boolean gtk_init_check(int argc);
-
     /**
-     * Runs the main loop until gtk_main_quit() is called. You can nest calls to gtk_main(). In that case gtk_main_quit() will make the
-     * innermost invocation of the main loop return.
+     * Runs the runnable on the GTK thread, after (at least) the delay.
      */
-    private static native void gtk_main();
+    public static
+    void dispatchAfter(final int delayMillis, final Runnable runnable) {
+        GtkEventLoop.dispatchAfter(delayMillis, runnable);
+    }
 
     /**
-     * using g_idle_add() instead would require thread protection in the callback
+     * Runs the runnable on the GTK thread every interval, until it is cancelled. If the GTK thread is busy, the missed runs are skipped
+     * (they are not queued up). Nothing is allocated for each run.
      *
-     * @return TRUE to run this callback again, FALSE to remove from the list of event sources (and not call it again)
+     * @return a runnable that cancels it (from any thread)
      */
-    private static native int gdk_threads_add_idle(FuncCallback callback, Pointer data);
-
-    /**
-     * aks for the current nesting level of the main loop. Useful to determine (at startup) if GTK is already running
-     */
-    private static native int gtk_main_level();
+    public static
+    Runnable dispatchEvery(final int intervalMillis, final Runnable runnable) {
+        return GtkEventLoop.dispatchEvery(intervalMillis, runnable);
+    }
 
     /**
-     * Makes the innermost invocation of the main loop return when it regains control. ONLY CALL FROM THE GtkSupport class, UNLESS you know
-     * what you're doing!
+     * Stops the GTK event loop (if we started it), after everything that was dispatched before this has run. If JavaFX/SWT is used, the
+     * loop is left running (stopping it will break SWT/JavaFX shutdown).
      */
-    private static native void gtk_main_quit();
-
-    private static native void gdk_threads_init();
-
-    // tricky business. This should only be in the dispatch thread
-    private static native void gdk_threads_enter();
-    private static native void gdk_threads_leave();
-
-
+    public static
+    void shutdownGui() {
+        GtkEventLoop.shutdown();
+    }
 
 
 
@@ -263,6 +193,9 @@ class Gtk {
     // to create a menu entry WITH an icon.
     public static native Pointer gtk_image_new_from_file(String iconPath);
 
+    // to create a menu entry WITH an icon (that is in memory). Adds its own reference to the pixbuf.
+    public static native Pointer gtk_image_new_from_pixbuf(Pointer pixbuf);
+
 
     public static native Pointer gtk_image_menu_item_new_with_label(String label);
 
@@ -278,10 +211,29 @@ class Gtk {
 
     public static native void gtk_label_set_use_markup(Pointer label, int gboolean);
 
+    // the attributes stay when the text is changed (unlike markup). Adds its own reference to the list.
+    public static native void gtk_label_set_attributes(Pointer label, Pointer pangoAttrList);
+
+    // pango is always loaded by GTK, so these are found via the GTK library
+    public static final int PANGO_WEIGHT_BOLD = 700;
+
+    public static native Pointer pango_attr_list_new();
+
+    // the list takes ownership of the attribute
+    public static native void pango_attr_list_insert(Pointer pangoAttrList, Pointer pangoAttribute);
+
+    public static native void pango_attr_list_unref(Pointer pangoAttrList);
+
+    // the attribute covers all of the text
+    public static native Pointer pango_attr_weight_new(int weight);
+
     public static native Pointer gtk_status_icon_new();
 
     public static native void gtk_status_icon_set_from_file(Pointer widget, String lablel);
 
+    // adds its own reference to the pixbuf
+    public static native void gtk_status_icon_set_from_pixbuf(Pointer widget, Pointer pixbuf);
+
     public static native void gtk_status_icon_set_visible(Pointer widget, boolean visible);
 
     // app indicators don't support this, and we cater to the lowest common denominator
@@ -297,10 +249,14 @@ class Gtk {
 
     public static native void gtk_menu_shell_append(Pointer menu_shell, Pointer child);
 
+    public static native void gtk_menu_shell_insert(Pointer menu_shell, Pointer child, int position);
+
     public static native void gtk_menu_shell_deactivate(Pointer menu_shell, Pointer child);
 
     public static native void gtk_widget_set_sensitive(Pointer widget, int sensitive);
 
+    public static native Pointer gtk_widget_get_parent(Pointer widget);
+
     public static native void gtk_container_remove(Pointer menu, Pointer subItem);
 
     public static native void gtk_widget_show(Pointer widget);
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.linux.jna;
+
+import dorkbox.systemTray.SystemTray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds which of the GTK/AppIndicator libraries are installed, so that the loaders only try to load (dlopen + bind) the libraries that
+ * exist. Every failed attempt to load a library costs a full search of the library path.
+ * <p>
+ * The library directories are searched at the same time (one thread each), and libraries are NOT loaded while probing. Loading both
+ * GTK2 and GTK3 into the same process breaks GTK, so only the library that is chosen is ever loaded.
+ * <p>
+ * If a library cannot be found (for example, the libraries are in a directory we do not know about), then every library of that type is
+ * tried, exactly as if there was no probe.
+ */
+public
+class LibraryProbe {
+    // the same logger as SystemTray (which is not visible to this package)
+    private static final Logger logger = LoggerFactory.getLogger(SystemTray.class);
+
+    // how long the loaders will wait for the probe before trying every library
+    private static final long MAX_WAIT = 500L;
+
+    private static final String[] GTK_LIBRARIES = new String[] {"gtk-x11-2.0", "libgtk-3.so.0"};
+    private static final String[] APP_INDICATOR_LIBRARIES = new String[14];
+
+    static {
+        APP_INDICATOR_LIBRARIES[0] = "appindicator-gtk";
+        APP_INDICATOR_LIBRARIES[1] = "appindicator-gtk3";
+        APP_INDICATOR_LIBRARIES[2] = "appindicator";
+        for (int i = 0; i <= 10; i++) {
+            APP_INDICATOR_LIBRARIES[i + 3] = "appindicator" + i;
+        }
+    }
+
+    // file names found in the library directories
+    private static final Set<String> fileNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static volatile CountDownLatch finished = null;
+
+    /**
+     * Starts searching the library directories (in the background). This should be called as early as possible.
+     */
+    public static synchronized
+    void start() {
+        if (finished != null) {
+            return;
+        }
+
+        final List<File> directories = getLibraryDirectories();
+        final CountDownLatch latch = new CountDownLatch(directories.size());
+        finished = latch;
+
+        for (int i = 0; i < directories.size(); i++) {
+            final File directory = directories.get(i);
+
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public
+                void run() {
+                    try {
+                        final String[] list = directory.list();
+                        if (list != null) {
+                            Collections.addAll(fileNames, list);
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }, "SystemTray Library Probe");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return true if the GTK library should be loaded. False if it is known not to exist.
+     */
+    static
+    boolean shouldTryGtk(final String libraryName) {
+        return shouldTry(libraryName, GTK_LIBRARIES);
+    }
+
+    /**
+     * @return true if the AppIndicator library should be loaded. False if it is known not to exist.
+     */
+    static
+    boolean shouldTryAppIndicator(final String libraryName) {
+        return shouldTry(libraryName, APP_INDICATOR_LIBRARIES);
+    }
+
+    private static
+    boolean shouldTry(final String libraryName, final String[] libraryNames) {
+        final CountDownLatch latch = finished;
+        if (latch == null) {
+            return true;
+        }
+
+        try {
+            if (!latch.await(MAX_WAIT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+
+        if (exists(libraryName)) {
+            return true;
+        }
+
+        // if none of them exist, we don't know where the libraries are. Try all of them.
+        for (String name : libraryNames) {
+            if (exists(name)) {
+                return false;
+            }
+        }
+
+        if (SystemTray.DEBUG) {
+            logger.info("Unable to find the library files for: {}. Trying all libraries.", libraryName);
+        }
+        else {
+            logger.debug("Unable to find the library files for: {}. Trying all libraries.", libraryName);
+        }
+        return true;
+    }
+
+    /**
+     * JNA searches for "libNAME.so" (and versions of it) for a plain name, and for exactly that file when the name has ".so" in it
+     */
+    private static
+    boolean exists(final String libraryName) {
+        if (libraryName.contains(".so")) {
+            return fileNames.contains(libraryName);
+        }
+
+        final String fileName = "lib" + libraryName + ".so";
+        if (fileNames.contains(fileName)) {
+            return true;
+        }
+
+        final String versionedName = fileName + ".";
+        for (String name : fileNames) {
+            if (name.startsWith(versionedName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static
+    List<File> getLibraryDirectories() {
+        final Set<String> paths = new LinkedHashSet<String>();
+
+        addPaths(paths, System.getProperty("jna.library.path"));
+        addPaths(paths, System.getenv("LD_LIBRARY_PATH"));
+
+        Collections.addAll(paths, "/lib", "/lib64", "/usr/lib", "/usr/lib64", "/usr/local/lib");
+
+        // multi-arch directories, for example /usr/lib/x86_64-linux-gnu
+        for (String root : new String[] {"/lib", "/usr/lib"}) {
+            final File[] files = new File(root).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith("-linux-gnu") && file.isDirectory()) {
+                        paths.add(file.getPath());
+                    }
+                }
+            }
+        }
+
+        final List<File> directories = new ArrayList<File>(paths.size());
+        for (String path : paths) {
+            final File file = new File(path);
+            if (file.isDirectory()) {
+                directories.add(file);
+            }
+        }
+
+        return directories;
+    }
+
+    private static
+    void addPaths(final Set<String> paths, final String path) {
+        if (path == null) {
+            return;
+        }
+
+        for (String dir : path.split(File.pathSeparator)) {
+            if (!dir.isEmpty()) {
+                paths.add(dir);
+            }
+        }
+    }
+}
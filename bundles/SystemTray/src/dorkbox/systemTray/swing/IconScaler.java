@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.swing;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.UIManager;
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads and scales the icons for the swing tray and menu entries. The scaled images are kept in memory (by file and size), so the same
+ * icon is only loaded and scaled once.
+ * <p>
+ * Images are scaled with bilinear interpolation, halving the size at a time when they are made much smaller (which looks about the same
+ * as Image.SCALE_SMOOTH, but is many times faster). The scaled images are TYPE_INT_ARGB_PRE, which is what swing draws the fastest.
+ */
+final
+class IconScaler {
+    // guarded by 'images'. The least recently used images are first
+    private static final Map<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(16, 0.75F, true) {
+        @Override
+        protected
+        boolean removeEldestEntry(final Map.Entry<String, BufferedImage> eldest) {
+            return size() > SwingSystemTray.ICON_CACHE_SIZE;
+        }
+    };
+
+    private static volatile int menuIconHeight = -1;
+
+    private
+    IconScaler() {
+    }
+
+    /**
+     * @return the height that menu icons are scaled to, or 0 to not scale them
+     */
+    static
+    int getMenuIconHeight() {
+        int height = menuIconHeight;
+        if (height == -1) {
+            // this will (and should) be the correct size for the system. On the systems tested, it was 16
+            // see: http://en-human-begin.blogspot.de/2007/11/javas-icons-by-default.html
+            final Icon icon = UIManager.getIcon("FileView.fileIcon");
+            height = icon == null ? 0 : icon.getIconHeight();
+            menuIconHeight = height;
+        }
+        return height;
+    }
+
+    /**
+     * @return the cache key for the image file, scaled to the size
+     */
+    static
+    String getKey(final String imageFile, final int width, final int height, final boolean keepAspectRatio) {
+        // the icon files are named by a hash of their contents (and are not changed), so the file does not have to be checked
+        return width + "x" + height + (keepAspectRatio ? "" : "!") + ":" + imageFile;
+    }
+
+    /**
+     * @return the image if it has already been loaded (and scaled), otherwise null
+     */
+    static
+    BufferedImage getCachedImage(final String key) {
+        synchronized (images) {
+            return images.get(key);
+        }
+    }
+
+    /**
+     * Loads the image file, and scales it.
+     *
+     * @param width the width to scale the image to, or 0 to not scale it
+     * @param height the height to scale the image to, or 0 to not scale it
+     * @param keepAspectRatio true to only make the image smaller (if it doesn't fit in the size), keeping the aspect ratio. false to
+     *                        scale the image to exactly the size.
+     *
+     * @return the scaled image, or null if the image file could not be loaded
+     */
+    static
+    BufferedImage getImage(final String imageFile, final int width, final int height, final boolean keepAspectRatio) {
+        final String key = getKey(imageFile, width, height, keepAspectRatio);
+
+        BufferedImage image = getCachedImage(key);
+        if (image != null) {
+            return image;
+        }
+
+        image = loadImage(imageFile);
+        if (image == null) {
+            return null;
+        }
+
+        if (width > 0 && height > 0) {
+            if (keepAspectRatio) {
+                final Dimension scaledDimension = getScaledDimension(image.getWidth(), image.getHeight(), width, height);
+                image = scale(image, scaledDimension.width, scaledDimension.height);
+            }
+            else {
+                image = scale(image, width, height);
+            }
+        }
+
+        synchronized (images) {
+            images.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * @return the image (as TYPE_INT_ARGB_PRE), or null if it could not be loaded
+     */
+    static
+    BufferedImage loadImage(final String imageFile) {
+        Image image = null;
+        try {
+            image = ImageIO.read(new File(imageFile));
+        } catch (Exception ignored) {
+        }
+
+        if (image == null) {
+            // formats that ImageIO can't read, but the toolkit can. ImageIcon waits for it to be loaded
+            image = new ImageIcon(Toolkit.getDefaultToolkit().createImage(imageFile)).getImage();
+        }
+
+        final int width = image.getWidth(null);
+        final int height = image.getHeight(null);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        return draw(image, width, height);
+    }
+
+    /**
+     * Scales the image, halving the size at a time until it is less than twice the size, then scales the rest of the way. Each step
+     * only has to look at the nearest pixels (which is all that bilinear interpolation does), so no pixels are skipped.
+     *
+     * @return the scaled image (as TYPE_INT_ARGB_PRE), or the same image if it is already the size
+     */
+    static
+    BufferedImage scale(BufferedImage image, final int width, final int height) {
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+
+        while (currentWidth != width || currentHeight != height) {
+            if (currentWidth > width * 2) {
+                currentWidth /= 2;
+            }
+            else {
+                currentWidth = width;
+            }
+
+            if (currentHeight > height * 2) {
+                currentHeight /= 2;
+            }
+            else {
+                currentHeight = height;
+            }
+
+            image = draw(image, currentWidth, currentHeight);
+        }
+
+        return image;
+    }
+
+    private static
+    BufferedImage draw(final Image image, final int width, final int height) {
+        final BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+
+        final Graphics2D graphics = scaledImage.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return scaledImage;
+    }
+
+    private static
+    Dimension getScaledDimension(int originalWidth, int originalHeight, int boundWidth, int boundHeight) {
+        //this function comes from http://stackoverflow.com/questions/10245220/java-image-resize-maintain-aspect-ratio
+
+        int newWidth = originalWidth;
+        int newHeight = originalHeight;
+
+        // first check if we need to scale width
+        if (originalWidth > boundWidth) {
+            //scale width to fit
+            newWidth = boundWidth;
+
+            //scale height to maintain aspect ratio
+            newHeight = (newWidth * originalHeight) / originalWidth;
+        }
+
+        // then check if we need to scale even with the new height
+        if (newHeight > boundHeight) {
+            //scale height to fit instead
+            newHeight = boundHeight;
+
+            //scale width to maintain aspect ratio
+            newWidth = (newHeight * originalWidth) / originalHeight;
+        }
+
+        return new Dimension(Math.max(1, newWidth), Math.max(1, newHeight));
+    }
+}
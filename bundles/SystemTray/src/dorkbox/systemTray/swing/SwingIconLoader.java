@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.systemTray.swing;
+
+import dorkbox.util.NamedThreadFactory;
+
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads (and scales) the menu entry icons on a background thread, so that the EDT only has to set the finished icon. The scaled icons
+ * are kept in memory by {@link IconScaler}, so the same icon is only loaded once.
+ */
+final
+class SwingIconLoader {
+    interface Listener {
+        /**
+         * Called (on the loader thread, or on the calling thread if the icon was cached) when the icon has been loaded
+         *
+         * @param icon the icon, or null if it could not be loaded
+         */
+        void loaded(Icon icon);
+    }
+
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(new NamedThreadFactory("SystemTray Icon Loader",
+                                                                                                           true));
+
+    // guarded by 'loading'. The icons that are being loaded, and who is waiting for them
+    private static final Map<String, List<Listener>> loading = new HashMap<String, List<Listener>>();
+
+    private
+    SwingIconLoader() {
+    }
+
+    /**
+     * Loads the icon (scaled to the menu icon size), and calls the listener with it.
+     *
+     * @param imageFile the icon file, from ImageUtil.iconFile()
+     */
+    static
+    void load(final String imageFile, final Listener listener) {
+        final int iconHeight = IconScaler.getMenuIconHeight();
+        final String key = IconScaler.getKey(imageFile, iconHeight, iconHeight, true);
+
+        final BufferedImage cachedImage = IconScaler.getCachedImage(key);
+        if (cachedImage != null) {
+            listener.loaded(new ImageIcon(cachedImage));
+            return;
+        }
+
+        synchronized (loading) {
+            List<Listener> listeners = loading.get(key);
+            if (listeners != null) {
+                // it is already being loaded
+                listeners.add(listener);
+                return;
+            }
+
+            listeners = new ArrayList<Listener>(2);
+            listeners.add(listener);
+            loading.put(key, listeners);
+        }
+
+        loader.execute(new Runnable() {
+            @Override
+            public
+            void run() {
+                Icon icon = null;
+                try {
+                    final BufferedImage image = IconScaler.getImage(imageFile, iconHeight, iconHeight, true);
+                    if (image != null) {
+                        icon = new ImageIcon(image);
+                    }
+                } finally {
+                    final List<Listener> listeners;
+                    synchronized (loading) {
+                        listeners = loading.remove(key);
+                    }
+
+                    for (Listener listener : listeners) {
+                        listener.loaded(icon);
+                    }
+                }
+            }
+        });
+    }
+}
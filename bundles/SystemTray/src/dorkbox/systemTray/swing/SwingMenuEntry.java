@@ -16,46 +16,76 @@
 
 package dorkbox.systemTray.swing;
 
+import dorkbox.systemTray.CallbackExecutor;
+import dorkbox.systemTray.CoalescingUpdate;
 import dorkbox.systemTray.ImageUtil;
 import dorkbox.systemTray.MenuEntry;
-import dorkbox.systemTray.SystemTray;
 import dorkbox.systemTray.SystemTrayMenuAction;
 import dorkbox.util.SwingUtil;
 
-import javax.imageio.ImageIO;
 import javax.swing.Icon;
-import javax.swing.ImageIcon;
 import javax.swing.JMenuItem;
-import javax.swing.UIManager;
-import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class SwingMenuEntry implements MenuEntry {
-    private static final String tempDirPath = ImageUtil.TEMP_DIR.getAbsolutePath();
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger();
+    private final int id = ID_COUNTER.getAndIncrement();
 
     private final SwingSystemTrayMenuPopup parent;
-    private final SystemTray systemTray;
+    private final SwingSystemTray systemTray;
     private final JMenuItem menuItem;
     private final ActionListener swingCallback;
 
     private volatile String text;
     private volatile SystemTrayMenuAction callback;
+    private final CallbackExecutor.EntryQueue callbacks = new CallbackExecutor.EntryQueue();
+
+    // guarded by 'imageLock'. The icon file that should be shown (a slower, older icon load must not replace a newer icon). It is retained
+    // in the icon cache until it is replaced, or the entry is removed
+    private String imageFile = null;
+    private final Object imageLock = new Object();
+
+    // text/image changes can happen faster than they are applied, so only the newest one is applied
+    private final CoalescingUpdate<String> textUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            SwingUtil.invokeLater(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String newText) {
+            menuItem.setText(newText);
+        }
+    };
+
+    private final CoalescingUpdate<Icon> imageUpdate = new CoalescingUpdate<Icon>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            SwingUtil.invokeLater(runnable);
+        }
 
-    private int iconHeight = -1;
+        @Override
+        protected
+        void apply(final Icon icon) {
+            menuItem.setIcon(icon);
+        }
+    };
 
 
 
 
-    SwingMenuEntry(final SwingSystemTrayMenuPopup parentMenu, final String label, final String imagePath, final SystemTrayMenuAction callback,
-                   final SystemTray systemTray) {
+    /**
+     * @param imageFile the icon file (from ImageUtil.iconFile()), which the caller has already retained. This entry releases it.
+     */
+    SwingMenuEntry(final SwingSystemTrayMenuPopup parentMenu, final String label, final String imageFile, final SystemTrayMenuAction callback,
+                   final SwingSystemTray systemTray) {
         this.parent = parentMenu;
         this.text = label;
         this.callback = callback;
@@ -73,21 +103,35 @@ class SwingMenuEntry implements MenuEntry {
         menuItem = new JMenuItem(label);
         menuItem.addActionListener(swingCallback);
 
-        if (imagePath != null && !imagePath.isEmpty()) {
-            setImageIcon(imagePath);
-        }
-
         parentMenu.add(menuItem);
+
+        if (imageFile != null) {
+            // the icon is loaded in the background, and shows up when it is ready
+            setImageFile(imageFile);
+        }
     }
 
     private
     void handle() {
-        SystemTrayMenuAction cb = this.callback;
+        final SystemTrayMenuAction cb = this.callback;
         if (cb != null) {
-            cb.onClick(systemTray, this);
+            // the callback does not run on the EDT, so a slow callback does not freeze the tray
+            callbacks.execute(new Runnable() {
+                @Override
+                public
+                void run() {
+                    cb.onClick(systemTray, SwingMenuEntry.this);
+                }
+            });
         }
     }
 
+    @Override
+    public
+    int getId() {
+        return id;
+    }
+
     @Override
     public
     String getText() {
@@ -97,85 +141,76 @@ class SwingMenuEntry implements MenuEntry {
     @Override
     public
     void setText(final String newText) {
+        final String oldText = this.text;
         this.text = newText;
+        systemTray.menuEntryTextChanged(this, oldText);
 
-        SwingUtil.invokeLater(new Runnable() {
-            @Override
-            public
-            void run() {
-                menuItem.setText(newText);
-            }
-        });
+        textUpdate.set(newText);
+    }
+
+    /**
+     * Called on the EDT. The text is changed right away.
+     */
+    void setText_(final String newText) {
+        final String oldText = this.text;
+        this.text = newText;
+        systemTray.menuEntryTextChanged(this, oldText);
+
+        textUpdate.setNow(newText);
     }
 
     private
     void setImage_(final String imagePath) {
-        SwingUtil.invokeLater(new Runnable() {
-            @Override
-            public
-            void run() {
-                setImageIcon(imagePath);
-            }
-        });
+        if (imagePath == null) {
+            setImageFile(null);
+            return;
+        }
+
+        // swing can only load icons (by path) from a file. It is retained first, so that the file is not deleted before it is loaded
+        ImageUtil.retainIcon(imagePath);
+        final String imageFile;
+        try {
+            imageFile = ImageUtil.iconFile(imagePath);
+        } catch (RuntimeException e) {
+            ImageUtil.releaseIcon(imagePath);
+            throw e;
+        }
+        setImageFile(imageFile);
     }
 
+    /**
+     * Loads (and scales) the icon off of the EDT. Only setting the finished icon happens on the EDT.
+     *
+     * @param imageFile the icon file, which has already been retained (or null for no icon). The previous icon file is released.
+     */
     private
-    void setImageIcon(final String imagePath) {
-        if (imagePath != null && !imagePath.isEmpty()) {
-
-            if (iconHeight != 0) {
-                // this will (and should) be the correct size for the system. On the systems tested, it was 16
-                // see: http://en-human-begin.blogspot.de/2007/11/javas-icons-by-default.html
-                Icon icon = UIManager.getIcon("FileView.fileIcon");
-                iconHeight = icon.getIconHeight();
+    void setImageFile(final String imageFile) {
+        synchronized (imageLock) {
+            final String previousImageFile = this.imageFile;
+            this.imageFile = imageFile;
+
+            if (previousImageFile != null) {
+                ImageUtil.releaseIcon(previousImageFile);
             }
 
-            ImageIcon origIcon = new ImageIcon(imagePath);
-            int origIconHeight = origIcon.getIconHeight();
-            int origIconWidth = origIcon.getIconWidth();
-
-            int savedIconHeight = this.iconHeight;
-
-            // it is necessary to resize this icon, so that it matches what our preferred size is for icons
-            if (origIconHeight != savedIconHeight && savedIconHeight != 0) {
-                //noinspection SuspiciousNameCombination
-                Dimension scaledDimension = getScaledDimension(origIconWidth, origIconHeight, savedIconHeight, savedIconHeight);
-
-                Image image = origIcon.getImage();
-
-                // scale it the smoothly
-                Image newImage = image.getScaledInstance(scaledDimension.width, scaledDimension.height, java.awt.Image.SCALE_SMOOTH);
-                origIcon = new ImageIcon(newImage);
-
-                // save it to temp spot on disk (so we don't have to KEEP on doing this). (but it MUST be the temp location, otherwise
-                // it's always 'on the fly')
-                if (imagePath.startsWith(tempDirPath)) {
-                    // have to delete the old one
-                    File file = new File(imagePath);
-                    boolean delete = file.delete();
-
-                    if (delete) {
-                        // now write out the new one
-                        String extension = ImageUtil.getExtension(imagePath);
-                        if (extension.equals("")) {
-                            extension = "png"; // made up
-                        }
-                        BufferedImage bufferedImage = getBufferedImage(image);
-                        try {
-                            ImageIO.write(bufferedImage, extension, file);
-                        } catch (IOException e) {
-                            // this shouldn't happen, but you never know...
-                            e.printStackTrace();
-                        }
+            if (imageFile == null || imageFile.isEmpty()) {
+                imageUpdate.set(null);
+                return;
+            }
+        }
+
+        SwingIconLoader.load(imageFile, new SwingIconLoader.Listener() {
+            @Override
+            public
+            void loaded(final Icon icon) {
+                synchronized (imageLock) {
+                    // a different icon might have been set while this one was loading
+                    if (imageFile.equals(SwingMenuEntry.this.imageFile)) {
+                        imageUpdate.set(icon);
                     }
                 }
             }
-
-            menuItem.setIcon(origIcon);
-        }
-        else {
-            menuItem.setIcon(null);
-        }
+        });
     }
 
     @Override
@@ -240,49 +275,8 @@ class SwingMenuEntry implements MenuEntry {
                 parent.remove(menuItem);
             }
         });
-    }
-
-    private static
-    Dimension getScaledDimension(int originalWidth, int originalHeight, int boundWidth, int boundHeight) {
-        //this function comes from http://stackoverflow.com/questions/10245220/java-image-resize-maintain-aspect-ratio
-
-        int newWidth = originalWidth;
-        int newHeight = originalHeight;
-
-        // first check if we need to scale width
-        if (originalWidth > boundWidth) {
-            //scale width to fit
-            newWidth = boundWidth;
-
-            //scale height to maintain aspect ratio
-            newHeight = (newWidth * originalHeight) / originalWidth;
-        }
-
-        // then check if we need to scale even with the new height
-        if (newHeight > boundHeight) {
-            //scale height to fit instead
-            newHeight = boundHeight;
-
-            //scale width to maintain aspect ratio
-            newWidth = (newHeight * originalWidth) / originalHeight;
-        }
-
-        return new Dimension(newWidth, newHeight);
-    }
-
-    private static
-    BufferedImage getBufferedImage(Image image) {
-        if (image instanceof BufferedImage) {
-            return (BufferedImage) image;
-        }
-
-        BufferedImage bimage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-
-        Graphics2D bGr = bimage.createGraphics();
-        bGr.drawImage(image, 0, 0, null);
-        bGr.dispose();
 
-        // Return the buffered image
-        return bimage;
+        // an icon that is still loading will not be shown
+        setImageFile(null);
     }
 }
@@ -15,14 +15,16 @@
  */
 package dorkbox.systemTray.swing;
 
+import dorkbox.systemTray.CoalescingUpdate;
 import dorkbox.systemTray.ImageUtil;
 import dorkbox.systemTray.MenuEntry;
 import dorkbox.systemTray.SystemTrayMenuAction;
+import dorkbox.util.Property;
 import dorkbox.util.ScreenUtil;
 import dorkbox.util.SwingUtil;
 
-import javax.swing.ImageIcon;
 import javax.swing.JMenuItem;
+import javax.swing.Timer;
 import java.awt.AWTException;
 import java.awt.Dimension;
 import java.awt.Font;
@@ -31,8 +33,11 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.SystemTray;
 import java.awt.TrayIcon;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.net.URL;
 
@@ -41,11 +46,49 @@ import java.net.URL;
  */
 public
 class SwingSystemTray extends dorkbox.systemTray.SystemTray {
+    @Property
+    /**
+     * The most tray and menu entry icons (after they are scaled to the tray/menu icon size) that are kept in memory, so they do not have
+     * to be loaded and scaled again. 0 to not keep any.
+     */
+    public static int ICON_CACHE_SIZE = 128;
+
     volatile SwingSystemTrayMenuPopup menu;
 
     volatile JMenuItem connectionStatusItem;
     private volatile String statusText = null;
 
+    // the status can change faster than it is applied, so only the newest one is applied
+    private final CoalescingUpdate<String> statusUpdate = new CoalescingUpdate<String>() {
+        @Override
+        protected
+        void dispatch(final Runnable runnable) {
+            SwingSystemTray.this.dispatch(runnable);
+        }
+
+        @Override
+        protected
+        void apply(final String statusText) {
+            SwingSystemTray tray = SwingSystemTray.this;
+            synchronized (tray) {
+                if (tray.connectionStatusItem == null) {
+                    final JMenuItem connectionStatusItem = new JMenuItem(statusText);
+                    Font font = connectionStatusItem.getFont();
+                    Font font1 = font.deriveFont(Font.BOLD);
+                    connectionStatusItem.setFont(font1);
+
+                    connectionStatusItem.setEnabled(false);
+                    tray.menu.add(connectionStatusItem);
+
+                    tray.connectionStatusItem = connectionStatusItem;
+                }
+                else {
+                    tray.connectionStatusItem.setText(statusText);
+                }
+            }
+        }
+    };
+
     volatile SystemTray tray;
     volatile TrayIcon trayIcon;
 
@@ -84,7 +127,7 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
                     for (MenuEntry menuEntry : tray.menuEntries) {
                         menuEntry.remove();
                     }
-                    tray.menuEntries.clear();
+                    tray.clearMenuEntries();
 
                     tray.connectionStatusItem = null;
                 }
@@ -103,39 +146,109 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
         SwingUtil.invokeLater(runnable);
     }
 
+    /**
+     * Called when the text of a menu entry has changed
+     */
+    void menuEntryTextChanged(final SwingMenuEntry menuEntry, final String oldText) {
+        updateMenuEntryIndex(menuEntry, oldText);
+    }
+
+    @Override
+    protected
+    void setMenuEntryText_(final MenuEntry menuEntry, final String newText) {
+        ((SwingMenuEntry) menuEntry).setText_(newText);
+    }
+
     @Override
     public
     void setStatus(final String statusText) {
         this.statusText = statusText;
+        statusUpdate.set(statusText);
+    }
 
-        dispatch(new Runnable() {
+    private static final
+    class IconFrame {
+        final String iconPath;
+        final Image image;
+
+        IconFrame(final String iconPath, final Image image) {
+            this.iconPath = iconPath;
+            this.image = image;
+        }
+    }
+
+    /**
+     * @return the tray icon image (scaled to the tray size)
+     */
+    private static
+    Image loadTrayImage(final String iconFile) {
+        final Image image = IconScaler.getImage(iconFile, TRAY_SIZE, TRAY_SIZE, false);
+        if (image == null) {
+            logger.error("Unable to load the tray icon '{}'", iconFile);
+            return new BufferedImage(TRAY_SIZE, TRAY_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return image;
+    }
+
+    @Override
+    protected
+    Object loadIconFrame(final String iconPath) {
+        // the image is already loaded (and scaled), so nothing is left to do when the frame is shown
+        return new IconFrame(iconPath, loadTrayImage(ImageUtil.iconFile(iconPath)));
+    }
+
+    @Override
+    protected
+    void showIconFrame(final Object frame) {
+        final IconFrame iconFrame = (IconFrame) frame;
+
+        final TrayIcon trayIcon = this.trayIcon;
+        if (trayIcon == null) {
+            // the tray icon is only created when the first icon is set
+            setIcon_(iconFrame.iconPath);
+        }
+        else {
+            trayIcon.setImage(iconFrame.image);
+            iconShown();
+        }
+    }
+
+    @Override
+    protected
+    void releaseIconFrame(final Object frame) {
+        // the images are kept by the icon cache (if there is room), and are otherwise garbage collected
+    }
+
+    @Override
+    protected
+    Runnable startTimer(final int intervalMillis, final Runnable tick) {
+        final Timer timer = new Timer(intervalMillis, new ActionListener() {
             @Override
             public
-            void run() {
-                SwingSystemTray tray = SwingSystemTray.this;
-                synchronized (tray) {
-                    if (tray.connectionStatusItem == null) {
-                        final JMenuItem connectionStatusItem = new JMenuItem(statusText);
-                        Font font = connectionStatusItem.getFont();
-                        Font font1 = font.deriveFont(Font.BOLD);
-                        connectionStatusItem.setFont(font1);
+            void actionPerformed(final ActionEvent e) {
+                tick.run();
+            }
+        });
 
-                        connectionStatusItem.setEnabled(false);
-                        tray.menu.add(connectionStatusItem);
+        // ticks that are late (because the EDT is busy) are combined into one
+        timer.setCoalesce(true);
+        timer.start();
 
-                        tray.connectionStatusItem = connectionStatusItem;
-                    }
-                    else {
-                        tray.connectionStatusItem.setText(statusText);
-                    }
-                }
+        return new Runnable() {
+            @Override
+            public
+            void run() {
+                timer.stop();
             }
-        });
+        };
     }
 
     @Override
     protected
     void setIcon_(final String iconPath) {
+        // swing can only load icons (by path) from a file. The icon is loaded (and scaled) before it goes to the EDT
+        final Image trayImage = loadTrayImage(ImageUtil.iconFile(iconPath));
+
         dispatch(new Runnable() {
             @Override
             public
@@ -147,9 +260,6 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
                         isActive = true;
 
                         menu = new SwingSystemTrayMenuPopup();
-                        Image trayImage = new ImageIcon(iconPath).getImage()
-                                                                 .getScaledInstance(TRAY_SIZE, TRAY_SIZE, Image.SCALE_SMOOTH);
-                        trayImage.flush();
                         trayIcon = new TrayIcon(trayImage);
 
                         // appindicators don't support this, so we cater to the lowest common denominator
@@ -201,12 +311,11 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
                             logger.error("TrayIcon could not be added.", e);
                         }
                     } else {
-                        Image trayImage = new ImageIcon(iconPath).getImage()
-                                                                 .getScaledInstance(TRAY_SIZE, TRAY_SIZE, Image.SCALE_SMOOTH);
-                        trayImage.flush();
                         tray.trayIcon.setImage(trayImage);
                     }
                 }
+
+                iconShown();
             }
         });
     }
@@ -214,12 +323,28 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
     /**
      * Will add a new menu entry, or update one if it already exists
      */
-    private
+    @Override
+    protected
     void addMenuEntry_(final String menuText, final String imagePath, final SystemTrayMenuAction callback) {
         if (menuText == null) {
             throw new NullPointerException("Menu text cannot be null");
         }
 
+        // swing can only load icons (by path) from a file. It is retained (for the menu entry) so the file is not deleted before it is loaded
+        final String imageFile;
+        if (imagePath == null) {
+            imageFile = null;
+        }
+        else {
+            ImageUtil.retainIcon(imagePath);
+            try {
+                imageFile = ImageUtil.iconFile(imagePath);
+            } catch (RuntimeException e) {
+                ImageUtil.releaseIcon(imagePath);
+                throw e;
+            }
+        }
+
         dispatch(new Runnable() {
             @Override
             public
@@ -230,11 +355,14 @@ class SwingSystemTray extends dorkbox.systemTray.SystemTray {
                         MenuEntry menuEntry = getMenuEntry(menuText);
 
                         if (menuEntry != null) {
+                            if (imageFile != null) {
+                                ImageUtil.releaseIcon(imageFile);
+                            }
                             throw new IllegalArgumentException("Menu entry already exists for given label '" + menuText + "'");
                         }
                         else {
-                            menuEntry = new SwingMenuEntry(menu, menuText, imagePath, callback, tray);
-                            menuEntries.add(menuEntry);
+                            menuEntry = new SwingMenuEntry(menu, menuText, imageFile, callback, tray);
+                            putMenuEntry(menuEntry);
                         }
                     }
                 }